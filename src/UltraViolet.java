@@ -319,6 +319,7 @@ public class UltraViolet {
         menuItems.add(new MenuItem("boot", "Bootstrap LN from scratch", this::bootstrapNetwork));
         menuItems.add(new MenuItem("t", "Start/Stop Timechain and P2P messages", this::handleTimeChainAndP2PMessages));
         menuItems.add(new MenuItem("path", "Find paths between nodes", x -> findPathsCmd()));
+        menuItems.add(new MenuItem("matrix", "Compute path cost matrix", x -> pathMatrixCmd()));
         menuItems.add(new MenuItem("route", "Route Invoice", x -> testInvoiceRoutingCmd()));
         menuItems.add(new MenuItem("inv", "Generate Invoice Events", this::generateInvoiceEventsMethod));
         menuItems.add(new MenuItem("bal", "Set Local Channels balances", this::setLocalChannelsBalances));
@@ -491,6 +492,7 @@ public class UltraViolet {
 
         var networkReport = networkManager.getStats().generateNetworkReport();
         var invoiceReport = networkManager.getStats().generateInvoiceReport();
+        var channelReport = networkManager.getStats().generateChannelReport();
 
         String labels = GlobalStats.NodeStats.generateStatsHeader();
         StringBuilder r = new StringBuilder(labels).append('\n');
@@ -516,6 +518,13 @@ public class UltraViolet {
             fwInvoice.close();
             System.out.println("Written " + filenameInvoice);
 
+            // For channel report
+            var filenameChannel = new StringBuilder(prefix).append("_channels.").append(sdf.format(new Date())).append(".csv");
+            var fwChannel = new FileWriter(filenameChannel.toString());
+            fwChannel.write(channelReport);
+            fwChannel.close();
+            System.out.println("Written " + filenameChannel);
+
             // For csv report
             var filenameCsv = new StringBuilder(prefix).append("_nodes.").append(sdf.format(new Date())).append(".csv");
             var fwCsv = new FileWriter(filenameCsv.toString());
@@ -684,20 +693,22 @@ public class UltraViolet {
             case "mini_dijkstra", "mini", "dijkstra" -> PathFinderFactory.Strategy.MINI_DIJKSTRA;
             case "shortest_hop", "shortest", "hop" -> PathFinderFactory.Strategy.SHORTEST_HOP;
             case "bfs" -> PathFinderFactory.Strategy.BFS;
+            case "yen" -> PathFinderFactory.Strategy.YEN;
+            case "min_cost_flow", "mcf" -> PathFinderFactory.Strategy.MIN_COST_FLOW;
             default -> throw new IllegalArgumentException("Unknown path finder: " + value);
         };
     }
 
     private PathFinderFactory.Strategy readPathFinderStrategyOrDefault() {
         return parsePathFinderStrategy(
-                readLineOrDefault("Path finder [lnd|mini_dijkstra|shortest_hop|bfs]", "lnd")
+                readLineOrDefault("Path finder [lnd|mini_dijkstra|shortest_hop|bfs|yen|min_cost_flow]", "lnd")
         );
     }
 
     private String readPathFinderChoiceOrDefault(boolean allowAll) {
         String prompt = allowAll
-                ? "Path finder [lnd|mini_dijkstra|shortest_hop|bfs|all]"
-                : "Path finder [lnd|mini_dijkstra|shortest_hop|bfs]";
+                ? "Path finder [lnd|mini_dijkstra|shortest_hop|bfs|yen|min_cost_flow|all]"
+                : "Path finder [lnd|mini_dijkstra|shortest_hop|bfs|yen|min_cost_flow]";
         return readLineOrDefault(prompt, "lnd").trim().toLowerCase(Locale.ROOT);
     }
 
@@ -738,7 +749,7 @@ public class UltraViolet {
         var invoice = dest.generateInvoice(amount,msg,true);
         System.out.println("Generated Invoice: "+invoice);
 
-        new Thread(()->sender.processInvoice(invoice, fees,true)).start();
+        new Thread(()->networkManager.runWorkload(()->sender.processInvoice(invoice, fees,true))).start();
     }
 
     /**
@@ -799,6 +810,76 @@ public class UltraViolet {
         System.out.println(ui.hint("search stats: " + formatSearchStats(searchResult.stats())));
     }
 
+    /**
+     * Best path costs between all the pairs of some nodes, searched in parallel on the graph of a node
+     */
+    private void pathMatrixCmd() {
+        String root;
+        if (imported_graph_root != null) {
+            System.out.println("Using imported graph root node " + imported_graph_root + " graph");
+            root = imported_graph_root;
+        } else {
+            if (networkManager.isBootstrapCompleted()) {
+                root = readLineOrDefault("Graph of node public key", "pk0");
+            }
+            else  {
+                System.out.println("Bootstrap Non completed!");
+                return;
+            }
+        }
+
+        var graph = networkManager.searchNode(root).getChannelGraph().view();
+        int maxNodes = readIntOrDefault("Max nodes", 100);
+        int amount = readIntOrDefault("Payment amount", 10000);
+        var strategy = readPathFinderStrategyOrDefault();
+        String filename = readLineOrDefault("Output CSV file (empty for none)", "");
+
+        var nodes = new ArrayList<String>();
+        for (int v = 0; v < graph.vertexCount() && nodes.size() < maxNodes; v++) {
+            if (graph.isPresent(v)) nodes.add(graph.vertexName(v));
+        }
+        var queries = new ArrayList<PathFinder.Query>(nodes.size() * nodes.size());
+        for (var source : nodes) {
+            for (var destination : nodes) {
+                if (!source.equals(destination)) queries.add(new PathFinder.Query(source, destination, amount));
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        var batch = PathFinder.findPaths(() -> PathFinderFactory.of(strategy, networkManager.getConfig()), graph, queries, 1);
+        long elapsed = System.currentTimeMillis() - start;
+
+        int reachable = 0;
+        double totalCost = 0;
+        var csv = new StringBuilder("source,destination,reachable,hops,cost\n");
+        for (int i = 0; i < queries.size(); i++) {
+            var query = queries.get(i);
+            var paths = batch.results().get(i).paths();
+            csv.append(query.source()).append(',').append(query.destination()).append(',').append(!paths.isEmpty());
+            if (paths.isEmpty()) {
+                csv.append(",,\n");
+                continue;
+            }
+            reachable++;
+            totalCost += paths.get(0).totalCost();
+            csv.append(',').append(paths.get(0).path().getSize()).append(',').append(formatDouble(paths.get(0).totalCost())).append('\n');
+        }
+
+        System.out.println(" -- " + strategy.name().toLowerCase() + " --------------------------------------");
+        System.out.println("pairs: " + queries.size() + ", reachable: " + reachable
+                + ", mean best cost: " + formatDouble(reachable > 0 ? totalCost / reachable : 0.0)
+                + ", elapsed ms: " + elapsed);
+        System.out.println(ui.hint("search stats: " + formatSearchStats(batch.stats())));
+
+        if (filename.isBlank()) return;
+        try (var fw = new FileWriter(filename)) {
+            fw.write(csv.toString());
+            System.out.println("Written " + filename);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private String formatPathDetails(PathFinder.PathDetails pathDetails) {
         StringBuilder s = new StringBuilder();
         s.append(pathDetails.path()).append(" COST: ").append(formatDouble(pathDetails.totalCost()));
@@ -824,6 +905,7 @@ public class UltraViolet {
                 + ", excluded_cycle=" + stats.excludedByCycle()
                 + ", excluded_max_hops=" + stats.excludedByMaxHops()
                 + ", excluded_cost=" + stats.excludedByCost()
+                + ", excluded_budget=" + stats.excludedByBudget()
                 + ", returned=" + stats.returnedPaths();
     }
 
@@ -1405,7 +1487,7 @@ public class UltraViolet {
         rows.add(buildNetworkStatRow("Node channels", nodes.stream().mapToDouble(n -> n.getChannels().size()), this::formatWhole));
         rows.add(buildNetworkStatRow("Node capacity", nodes.stream().mapToDouble(UVNode::getNodeCapacity), this::formatWhole));
         rows.add(buildNetworkStatRow("Local balance", nodes.stream().mapToDouble(UVNode::getLocalBalance), this::formatWhole));
-        rows.add(buildNetworkStatRow("Invoices", nodes.stream().mapToDouble(n -> n.getGeneratedInvoices().size()), this::formatWhole));
+        rows.add(buildNetworkStatRow("Invoices", nodes.stream().mapToDouble(n -> n.getGeneratedInvoiceCount()), this::formatWhole));
         rows.add(buildNetworkStatRow("Outbound %", nodes.stream().mapToDouble(this::safeOverallOutboundFraction), this::formatPercent));
         return rows;
     }
@@ -20,6 +20,13 @@ public abstract class GossipMsg extends P2PMessage implements Serializable {
     }
     abstract public GossipMsg nextMsgToForward(String sender);
 
+    /**
+     * Identity of the gossip content, the same for all the forwarded copies of a message
+     */
+    public record Key(String channelId, Type type, String signerId, int timestamp) { }
+
+    abstract public Key getKey();
+
 
 
     public GossipMsg(String fromID, int forwardings, int timestamp, Type msgType) {
@@ -1,5 +1,7 @@
 package message;
 
+import java.util.Objects;
+
 public class GossipMsgChannelAnnouncement extends GossipMsg {
 
     private final String short_channel_id;
@@ -37,6 +39,11 @@ public class GossipMsgChannelAnnouncement extends GossipMsg {
         return new GossipMsgChannelAnnouncement(sender,short_channel_id,getNodeId1(),getNodeId2(),funding, timestamp,forwardings+1);
     }
 
+    @Override
+    public Key getKey() {
+        return new Key(short_channel_id, msgType, null, timestamp);
+    }
+
     @Override
     public String toString() {
         return super.toString()+" id:" + short_channel_id +", node1:'" + node_id_1 + ", node2:" + node_id_2 + '}';
@@ -49,4 +56,9 @@ public class GossipMsgChannelAnnouncement extends GossipMsg {
 
         return short_channel_id.equals(that.short_channel_id) && timestamp == that.timestamp;
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(short_channel_id, timestamp);
+    }
 }
@@ -2,6 +2,8 @@ package message;
 
 import network.LNChannel;
 
+import java.util.Objects;
+
 public class GossipMsgChannelUpdate extends GossipMsg {
 
     private final String channel_id;
@@ -31,6 +33,11 @@ public class GossipMsgChannelUpdate extends GossipMsg {
         return updated_policy;
     }
 
+    @Override
+    public Key getKey() {
+        return new Key(channel_id, msgType, signerId, timestamp);
+    }
+
     @Override
     public String toString() {
         return super.toString() + "ch_id:" + channel_id + "}";
@@ -42,4 +49,9 @@ public class GossipMsgChannelUpdate extends GossipMsg {
 
         return channel_id.equals(that.channel_id) && timestamp == that.timestamp && signerId.equals(that.signerId);
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(channel_id, timestamp, signerId);
+    }
 }
@@ -4,14 +4,22 @@ public class MsgUpdateFailHTLC extends P2PMessage {
     private final String channel_id;
     private final int id;
     private final String reason;
+    // the channel the failing node could not forward on, as decoded by the sender from the onion failure in BOLT 4,
+    // null if the final node failed
+    private final String erring_channel_id;
 
 
     public MsgUpdateFailHTLC(String channel_id, int id, String reason) {
+        this(channel_id, id, reason, null);
+    }
+
+    public MsgUpdateFailHTLC(String channel_id, int id, String reason, String erring_channel_id) {
 
         super(P2PMessage.Type.UPDATE_FAIL_HTLC);
         this.channel_id = channel_id;
         this.id = id;
         this.reason = reason;
+        this.erring_channel_id = erring_channel_id;
     }
 
     public String getChannel_id() {
@@ -22,12 +30,16 @@ public class MsgUpdateFailHTLC extends P2PMessage {
         return reason;
     }
 
+    public String getErring_channel_id() {
+        return erring_channel_id;
+    }
+
     public int getId() {
         return id;
     }
 
     @Override
     public String toString() {
-        return "message.MsgUpdateFailHTLC{" + "ch_id:'" + channel_id + '\'' + ", id:" + id + ", reason:'" + reason + '\'' + '}';
+        return "message.MsgUpdateFailHTLC{" + "ch_id:'" + channel_id + '\'' + ", id:" + id + ", reason:'" + reason + '\'' + ", erring_ch_id:'" + erring_channel_id + '\'' + '}';
     }
 }
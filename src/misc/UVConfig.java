@@ -41,12 +41,35 @@ public class UVConfig implements Serializable {
     final public double pathfinding_lnd_attempt_cost_ppm;
     final public double pathfinding_lnd_default_path_probability;
     final public int pathfinding_lnd_default_payment_amount_sat;
+    final public int pathfinding_lnd_landmarks;
+    final public int pathfinding_lnd_landmarks_rebuild_changes;
+    final public int pathfinding_mcf_pieces;
+    final public double pathfinding_mcf_fee_weight;
+    final public int pathfinding_mcf_max_iterations;
+    final public int route_cache_size;
+    final public boolean route_cache_channel_invalidation;
+    final public int mission_control_half_life_blocks;
+    final public double mission_control_min_probability;
+    final public int mpp_max_shards;
+    final public int mpp_min_shard_sat;
+    final public int mpp_timeout_ms;
+    final public int invoice_expiry_ms;
+    final public int commitment_batch_ms;
+    final public int commitment_max_htlcs;
+    final public boolean pathfinding_bidirectional;
+    final public boolean pathfinding_measure_saved_edges;
+    final public int pathfinding_budget_edges;
+    final public int pathfinding_budget_ms;
     final public int to_self_delay;
     final public int minimum_depth;
     final public int max_threads;
     final public int blocktime_ms;
     final public int node_services_tick_ms;
     final public int gossip_flush_period_ms;
+    final public boolean virtual_time;
+    final public boolean event_driven_services;
+    final public boolean virtual_threads;
+    final public boolean gossip_log;
     final public String logfile;
     final public boolean debug;
 
@@ -219,11 +242,34 @@ public class UVConfig implements Serializable {
         pathfinding_lnd_attempt_cost_ppm = getDoublePropertyOrDefault("pathfinding_lnd_attempt_cost_ppm", 1000.0);
         pathfinding_lnd_default_path_probability = getDoublePropertyOrDefault("pathfinding_lnd_default_path_probability", 0.6);
         pathfinding_lnd_default_payment_amount_sat = getIntPropertyOrDefault("pathfinding_lnd_default_payment_amount_sat", 10_000);
+        pathfinding_lnd_landmarks = getIntPropertyOrDefault("pathfinding_lnd_landmarks", 0);
+        pathfinding_lnd_landmarks_rebuild_changes = getIntPropertyOrDefault("pathfinding_lnd_landmarks_rebuild_changes", 0);
+        pathfinding_mcf_pieces = getIntPropertyOrDefault("pathfinding_mcf_pieces", 4);
+        pathfinding_mcf_fee_weight = getDoublePropertyOrDefault("pathfinding_mcf_fee_weight", 0.01);
+        pathfinding_mcf_max_iterations = getIntPropertyOrDefault("pathfinding_mcf_max_iterations", 32);
+        route_cache_size = getIntPropertyOrDefault("route_cache_size", 0);
+        route_cache_channel_invalidation = getStringPropertyOrDefault("route_cache_invalidation", "epoch").equalsIgnoreCase("channels");
+        mission_control_half_life_blocks = getIntPropertyOrDefault("mission_control_half_life_blocks", 0);
+        mission_control_min_probability = getDoublePropertyOrDefault("mission_control_min_probability", 0.01);
+        mpp_max_shards = getIntPropertyOrDefault("mpp_max_shards", 1);
+        mpp_min_shard_sat = getIntPropertyOrDefault("mpp_min_shard_sat", 10_000);
+        mpp_timeout_ms = getIntPropertyOrDefault("mpp_timeout_ms", 60_000);
+        invoice_expiry_ms = getIntPropertyOrDefault("invoice_expiry_ms", 3_600_000);
+        commitment_batch_ms = getIntPropertyOrDefault("commitment_batch_ms", 0);
+        commitment_max_htlcs = getIntPropertyOrDefault("commitment_max_htlcs", 483);
+        pathfinding_bidirectional = getStringPropertyOrDefault("pathfinding_search", "forward").equalsIgnoreCase("bidirectional");
+        pathfinding_measure_saved_edges = getStringPropertyOrDefault("pathfinding_measure_saved_edges", "false").equalsIgnoreCase("true");
+        pathfinding_budget_edges = getIntPropertyOrDefault("pathfinding_budget_edges", 0);
+        pathfinding_budget_ms = getIntPropertyOrDefault("pathfinding_budget_ms", 0);
         bootstrap_nodes = Integer.parseInt(properties.getProperty("bootstrap_nodes"));
         max_threads = Integer.parseInt(properties.getProperty("max_threads"));
         blocktime_ms = Integer.parseInt(properties.getProperty("blocktime_ms"));
         node_services_tick_ms = Integer.parseInt(properties.getProperty("node_services_tick_ms"));
         gossip_flush_period_ms = Integer.parseInt(properties.getProperty("gossip_flush_period_ms"));
+        virtual_time = getStringPropertyOrDefault("time_mode", "realtime").equalsIgnoreCase("virtual");
+        event_driven_services = !getStringPropertyOrDefault("node_scheduler", "event").equalsIgnoreCase("polling");
+        virtual_threads = getStringPropertyOrDefault("executor", "platform").equalsIgnoreCase("virtual");
+        gossip_log = getStringPropertyOrDefault("gossip_fabric", "flood").equalsIgnoreCase("log");
         to_self_delay = Integer.parseInt(properties.getProperty("to_self_delay"));
         minimum_depth = Integer.parseInt(properties.getProperty("minimum_depth"));
         bootstrap_blocks = Integer.parseInt(properties.getProperty("bootstrap_blocks"));
@@ -368,6 +414,11 @@ public class UVConfig implements Serializable {
         return value == null ? defaultValue : Integer.parseInt(value.trim());
     }
 
+    private String getStringPropertyOrDefault(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : value.trim();
+    }
+
     private double getDoublePropertyOrDefault(String key, double defaultValue) {
         String value = properties.getProperty(key);
         return value == null ? defaultValue : Double.parseDouble(value.trim());
@@ -400,12 +451,33 @@ public class UVConfig implements Serializable {
                 ", p2p_max_hops=" + p2p_max_hops +
                 ", p2p_max_age=" + p2p_max_age +
                 ", pathfinding_max_hops=" + pathfinding_max_hops +
+                ", pathfinding_bidirectional=" + pathfinding_bidirectional +
+                ", pathfinding_measure_saved_edges=" + pathfinding_measure_saved_edges +
+                ", pathfinding_budget_edges=" + pathfinding_budget_edges +
+                ", pathfinding_budget_ms=" + pathfinding_budget_ms +
+                ", pathfinding_lnd_landmarks=" + pathfinding_lnd_landmarks +
+                ", pathfinding_mcf_pieces=" + pathfinding_mcf_pieces +
+                ", pathfinding_mcf_fee_weight=" + pathfinding_mcf_fee_weight +
+                ", pathfinding_mcf_max_iterations=" + pathfinding_mcf_max_iterations +
+                ", route_cache_size=" + route_cache_size +
+                ", mission_control_half_life_blocks=" + mission_control_half_life_blocks +
+                ", mission_control_min_probability=" + mission_control_min_probability +
+                ", mpp_max_shards=" + mpp_max_shards +
+                ", mpp_min_shard_sat=" + mpp_min_shard_sat +
+                ", mpp_timeout_ms=" + mpp_timeout_ms +
+                ", invoice_expiry_ms=" + invoice_expiry_ms +
+                ", commitment_batch_ms=" + commitment_batch_ms +
+                ", commitment_max_htlcs=" + commitment_max_htlcs +
                 ", bootstrap_nodes=" + bootstrap_nodes +
                 ", max_threads=" + max_threads +
                 ", seed=" + master_seed +
                 ", blocktime_ms=" + blocktime_ms +
                 ", node_services_tick_ms=" + node_services_tick_ms +
                 ", gossip_flush_period_ms=" + gossip_flush_period_ms +
+                ", virtual_time=" + virtual_time +
+                ", event_driven_services=" + event_driven_services +
+                ", virtual_threads=" + virtual_threads +
+                ", gossip_log=" + gossip_log +
                 ", sourcePath='" + sourcePath + '\'' +
                 ", logfile='" + logfile + '\'' +
                 '}';
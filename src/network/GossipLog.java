@@ -0,0 +1,99 @@
+package network;
+
+import message.GossipMsg;
+
+/**
+ * Network-wide, append-only log of the gossip messages (gossip_fabric=log).
+ * Instead of copying every message into the queues of all the peers at each hop, a message is appended once and each
+ * node reads the log from its own cursor, considering only the entries broadcast within p2p_max_hops of itself.
+ * Entries are stored in fixed size chunks, so that readers can access the published entries without locking.
+ * Indexes are absolute since the start of the log: the full chunks already read by all the nodes, or holding only
+ * entries older than p2p_max_age, are dropped by compact(), and base() is the index of the first entry still stored.
+ */
+class GossipLog {
+
+    /**
+     * @param broadcaster the node originating the broadcast, center of the p2p_max_hops horizon
+     * @param excluded the peer that should not receive the message, as in broadcastToPeers
+     * @param block the height when the entry was published
+     */
+    record Entry(GossipMsg msg, String broadcaster, String excluded, int block) { }
+
+    /**
+     * The stored chunks, the first one being chunk number first of the log
+     */
+    private record Chunks(Entry[][] chunks, int first) { }
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private volatile Chunks stored = new Chunks(new Entry[16][], 0);
+    // written after the entry, so that entries below size are always visible
+    private volatile int size = 0;
+
+    /**
+     * @return true if the entry filled the last chunk, that can be compacted from now on
+     */
+    synchronized boolean append(Entry entry) {
+        var current = stored;
+        var chunks = current.chunks();
+        int chunk = (size >>> CHUNK_BITS) - current.first();
+        if (chunk == chunks.length) {
+            var grown = new Entry[chunks.length * 2][];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            chunks = grown;
+            current = new Chunks(grown, current.first());
+        }
+        if (chunks[chunk] == null) chunks[chunk] = new Entry[CHUNK_SIZE];
+        chunks[chunk][size & (CHUNK_SIZE - 1)] = entry;
+        stored = current;
+        size++;
+        return (size & (CHUNK_SIZE - 1)) == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the oldest entry not compacted yet
+     */
+    int base() {
+        return stored.first() << CHUNK_BITS;
+    }
+
+    /**
+     * @param index must be lower than a previously read size()
+     * @return the entry, or null if already compacted: the reader should then move to base()
+     */
+    Entry get(int index) {
+        var current = stored;
+        int chunk = (index >>> CHUNK_BITS) - current.first();
+        return chunk < 0 ? null : current.chunks()[chunk][index & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Drops the oldest full chunks that are no longer read: those below all the cursors, or holding only entries
+     * published before min_block, that readers would skip anyway.
+     * Entries are appended in block order, so the last entry of a chunk is the newest one.
+     * @param min_cursor the lowest cursor among the nodes reading the log
+     * @param min_block the oldest block of the entries still to be delivered (current height - p2p_max_age)
+     * @return the number of entries dropped
+     */
+    synchronized int compact(int min_cursor, int min_block) {
+        var current = stored;
+        var chunks = current.chunks();
+        int full = (size >>> CHUNK_BITS) - current.first();
+        int dropped = 0;
+        while (dropped < full &&
+                ((current.first() + dropped + 1) << CHUNK_BITS <= min_cursor ||
+                        chunks[dropped][CHUNK_SIZE - 1].block() < min_block))
+            dropped++;
+        if (dropped == 0) return 0;
+
+        var kept = new Entry[chunks.length][];
+        System.arraycopy(chunks, dropped, kept, 0, chunks.length - dropped);
+        stored = new Chunks(kept, current.first() + dropped);
+        return dropped << CHUNK_BITS;
+    }
+}
@@ -0,0 +1,118 @@
+package network;
+
+import message.MsgUpdateAddHTLC;
+
+import java.util.*;
+
+/**
+ * The HTLCs offered by a node and not resolved yet, keyed by channel and HTLC id, the only pair identifying a HTLC:
+ * the shards of a payment, and the payments forwarded twice by a node, share the payment hash.
+ * A forwarded HTLC keeps the incoming one it was offered for, to send back its fulfill or failure.
+ * An entry is created {@link State#OFFERED} and leaves the table with its final state, once only, so that a late
+ * or duplicate fulfill or failure finds no entry.
+ */
+class HTLCTable {
+
+    enum State { OFFERED, FULFILLED, FAILED, TIMED_OUT }
+
+    static final class Entry {
+        private final String key;
+        private final MsgUpdateAddHTLC offered;
+        private final MsgUpdateAddHTLC incoming;
+        private State state = State.OFFERED;
+
+        private Entry(String key, MsgUpdateAddHTLC offered, MsgUpdateAddHTLC incoming) {
+            this.key = key;
+            this.offered = offered;
+            this.incoming = incoming;
+        }
+
+        String key() {
+            return key;
+        }
+
+        MsgUpdateAddHTLC offered() {
+            return offered;
+        }
+
+        /**
+         * @return the HTLC received for the offered one, null when offered for an own payment
+         */
+        MsgUpdateAddHTLC incoming() {
+            return incoming;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        @Override
+        public String toString() {
+            return state() + " " + offered + (incoming != null ? " for " + incoming : "");
+        }
+    }
+
+    private final HashMap<String, Entry> byKey = new HashMap<>();
+    // keys of the entries by payment hash
+    private final HashMap<String, Set<String>> byHash = new HashMap<>();
+
+    static String key(String channelId, int id) {
+        return channelId + ":" + id;
+    }
+
+    /**
+     * @param incoming the HTLC forwarded with the offered one, null for an own payment
+     */
+    synchronized Entry offer(MsgUpdateAddHTLC offered, MsgUpdateAddHTLC incoming) {
+        var key = key(offered.getChannel_id(), offered.getId());
+        var entry = new Entry(key, offered, incoming);
+        if (byKey.putIfAbsent(key, entry) != null) throw new IllegalStateException("HTLC " + key + " already offered");
+        byHash.computeIfAbsent(offered.getPayment_hash(), h -> new HashSet<>()).add(key);
+        return entry;
+    }
+
+    synchronized Entry get(String key) {
+        return byKey.get(key);
+    }
+
+    /**
+     * Moves the entry from {@link State#OFFERED} to its final state, removing it from the table
+     * @return the entry, or null if not in the table, e.g. already resolved
+     */
+    synchronized Entry resolve(String key, State outcome) {
+        if (outcome == State.OFFERED) throw new IllegalArgumentException("Not a final state: " + outcome);
+        var entry = byKey.remove(key);
+        if (entry == null) return null;
+        synchronized (entry) {
+            entry.state = outcome;
+        }
+        var hash = entry.offered().getPayment_hash();
+        var keys = byHash.get(hash);
+        keys.remove(key);
+        if (keys.isEmpty()) byHash.remove(hash);
+        return entry;
+    }
+
+    /**
+     * @return the entries offered with the payment hash, in no particular order
+     */
+    synchronized List<Entry> byPaymentHash(String hash) {
+        var keys = byHash.get(hash);
+        if (keys == null) return List.of();
+        var entries = new ArrayList<Entry>(keys.size());
+        for (var key : keys) entries.add(byKey.get(key));
+        return entries;
+    }
+
+    synchronized List<Entry> entries() {
+        return new ArrayList<>(byKey.values());
+    }
+
+    synchronized int size() {
+        return byKey.size();
+    }
+
+    synchronized boolean isEmpty() {
+        return byKey.isEmpty();
+    }
+}
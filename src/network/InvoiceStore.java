@@ -0,0 +1,75 @@
+package network;
+
+import protocol.LNInvoice;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The invoices generated by a node, indexed by payment hash, so that the final hop finds the preimage of an incoming
+ * HTLC without hashing the preimages of all the invoices.
+ * An invoice is removed when settled or once expired: entries are queued in generation order, which is also their
+ * expiry order, so that pruning only polls the head of the queue.
+ */
+class InvoiceStore implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 120680L;
+
+    record Entry(long preimage, LNInvoice invoice, long expiresAt) implements Serializable { }
+
+    private final ConcurrentHashMap<String, Entry> byHash = new ConcurrentHashMap<>();
+    private final ArrayDeque<Entry> byExpiry = new ArrayDeque<>();
+    private long generated = 0;
+
+    synchronized void add(long preimage, LNInvoice invoice, long expiresAt) {
+        var entry = new Entry(preimage, invoice, expiresAt);
+        byHash.put(invoice.getHash(), entry);
+        byExpiry.add(entry);
+        generated++;
+    }
+
+    /**
+     * @return the entry of the hash, null if unknown, settled or expired at the given time
+     */
+    Entry get(String hash, long now) {
+        var entry = byHash.get(hash);
+        return entry == null || entry.expiresAt() < now ? null : entry;
+    }
+
+    /**
+     * The invoice was paid, its preimage is not needed anymore
+     */
+    void settle(String hash) {
+        byHash.remove(hash);
+    }
+
+    /**
+     * Removes the invoices expired at the given time
+     */
+    synchronized void prune(long now) {
+        while (!byExpiry.isEmpty() && byExpiry.peek().expiresAt() < now) {
+            var entry = byExpiry.poll();
+            // a later invoice with the same hash replaced the entry
+            byHash.remove(entry.invoice().getHash(), entry);
+        }
+        // settled invoices are dropped from the queue when not expired yet, once it grows past the pending ones
+        if (byExpiry.size() > 2 * byHash.size() + 16) byExpiry.removeIf(e -> byHash.get(e.invoice().getHash()) != e);
+    }
+
+    /**
+     * @return the invoices neither settled nor pruned
+     */
+    int size() {
+        return byHash.size();
+    }
+
+    /**
+     * @return the invoices generated since the node started
+     */
+    synchronized long generatedCount() {
+        return generated;
+    }
+}
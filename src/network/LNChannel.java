@@ -1,6 +1,7 @@
 package network;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 public interface LNChannel {
     class Policy implements Serializable {
@@ -31,6 +32,16 @@ public interface LNChannel {
         public String toString() {
             return String.format("%-5d %-5d", base_fee_msat, fee_ppm);
         }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Policy p && cltv_delta == p.cltv_delta && base_fee_msat == p.base_fee_msat && fee_ppm == p.fee_ppm;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cltv_delta, base_fee_msat, fee_ppm);
+        }
     }
 
     String getChannelId();
@@ -0,0 +1,163 @@
+package network;
+
+import protocol.UVEventCalendar;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ready-queue scheduler of the node services (node_scheduler=event).
+ * Instead of polling every node at a fixed rate, a node is handed to the workers only when a message is delivered to
+ * its queues, or when one of its timed duties (gossip flush, funding tx confirmations) becomes due.
+ * Each node is served by at most one worker at a time: requests arriving while the node is being served are coalesced
+ * into one more round, so that no delivery is lost.
+ * Workers are sharded, one per core: every node is pinned to a fixed shard, whose worker drains its own ready queue in
+ * a loop, keeping the node data on the same core and avoiding contention on a single shared queue.
+ */
+class NodeServiceScheduler {
+
+    private final UVNetwork uvNetwork;
+    // in virtual time both ready queue and timers are events of the global calendar
+    private final UVEventCalendar calendar;
+    private final Shard[] shards;
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong serviceRuns = new AtomicLong(0);
+    private final AtomicLong timedWakeups = new AtomicLong(0);
+
+    NodeServiceScheduler(UVNetwork uvNetwork, int pool_size) {
+        this.uvNetwork = uvNetwork;
+        this.calendar = uvNetwork.getEventCalendar();
+
+        if (calendar != null) {
+            shards = null;
+            timer = null;
+            return;
+        }
+        shards = new Shard[Math.max(1, pool_size)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard("p2p_service-" + i);
+            shards[i].thread.start();
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "p2p_timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private final class Shard implements Runnable {
+        private final LinkedBlockingQueue<UVNode> readyQueue = new LinkedBlockingQueue<>();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private Shard(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    serve(readyQueue.take());
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    uvNetwork.logException("Node service worker " + thread.getName(), e);
+                }
+            }
+        }
+    }
+
+    private Shard shardOf(UVNode node) {
+        return shards[Math.floorMod(node.getPubKey().hashCode(), shards.length)];
+    }
+
+    /**
+     * Signal that the node has some pending work, enqueuing it in the ready queue if not already there
+     */
+    void markRunnable(UVNode node) {
+        if (node.serviceRequests.getAndIncrement() == 0) {
+            if (calendar != null) {
+                calendar.schedule(0, UVEventCalendar.Phase.DELIVERY, () -> serve(node));
+            } else {
+                shardOf(node).readyQueue.add(node);
+            }
+        }
+    }
+
+    /**
+     * Request a service round after the given delay, unless an earlier one is already scheduled
+     */
+    void wakeAfter(UVNode node, long delay_ms) {
+        long now = uvNetwork.currentTimeMillis();
+        long wake_at = now + delay_ms;
+        long scheduled = node.serviceWakeAt.get();
+        // an earlier (or equal) wakeup is still pending
+        if (scheduled > now && scheduled <= wake_at) return;
+        if (!node.serviceWakeAt.compareAndSet(scheduled, wake_at)) return;
+
+        timedWakeups.incrementAndGet();
+        Runnable wakeup = () -> {
+            node.serviceWakeAt.compareAndSet(wake_at, 0);
+            markRunnable(node);
+        };
+        if (calendar != null) {
+            calendar.schedule(delay_ms, UVEventCalendar.Phase.SERVICE, wakeup);
+        } else {
+            try {
+                timer.schedule(wakeup, delay_ms, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignored) {
+                // shutting down
+            }
+        }
+    }
+
+    private void serve(UVNode node) {
+        int requests = node.serviceRequests.get();
+        while (true) {
+            if (node.isP2PRunning()) {
+                serviceRuns.incrementAndGet();
+                node.runServices();
+            }
+            requests = node.serviceRequests.addAndGet(-requests);
+            if (requests == 0) break;
+        }
+
+        if (!node.isP2PRunning()) return;
+
+        // per-round limits on processed messages may leave some work for another round
+        if (node.hasPendingMessages()) {
+            markRunnable(node);
+            return;
+        }
+        long delay = node.getNextServiceDelay();
+        if (delay >= 0) wakeAfter(node, Math.max(1, delay));
+    }
+
+    long getServiceRuns() {
+        return serviceRuns.get();
+    }
+
+    long getTimedWakeups() {
+        return timedWakeups.get();
+    }
+
+    void shutdown() {
+        if (timer != null) timer.shutdownNow();
+        if (shards == null) return;
+        for (var shard : shards) {
+            shard.running = false;
+            shard.thread.interrupt();
+        }
+        for (var shard : shards) {
+            try {
+                shard.thread.join(5000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package network;
 
+import message.P2PMessage;
+
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 @SuppressWarnings("CanBeFinal")
@@ -15,11 +19,25 @@ public class UVChannel implements LNChannel, Serializable, Comparable<LNChannel>
     private int commitNumber = 0;
     private final String channel_id;
 
+    // commitment rounds signed, with the updates they carried and the time these waited for them
+    private long signedUpdates = 0;
+    private long queuedMsSum = 0;
+    private long queuedMsMax = 0;
+    private int maxInFlightHtlcs = 0;
+    private int rejectedHtlcs = 0;
+
+    // an update (add, fulfill, fail) waiting for the next commitment round of its sender
+    private record QueuedUpdate(P2PMessage msg, long queuedAt) {}
+
     public static class NodeData implements Serializable{
         final private String pubkey;
         private Policy policy;
         private int balance;
         private int pending;
+        // HTLCs offered by the node and not resolved yet
+        private int inFlightHtlcs;
+        // the updates sent since the last commitment_signed of the node
+        private transient List<QueuedUpdate> updates;
         // Constructor
         public NodeData(String pubkey, Policy policy, int balance, int pending) {
             this.pubkey = pubkey;
@@ -96,16 +114,79 @@ public class UVChannel implements LNChannel, Serializable, Comparable<LNChannel>
         throw new IllegalArgumentException("Not existing node:"+pubkey);
     }
 
-    public synchronized boolean reservePending(String pubkey, int amt) {
+    /**
+     * Reserve the amount of a new HTLC offered by the node
+     * @param maxHtlcs the HTLCs the node can have in flight on the channel (max_accepted_htlcs of the peer), 0 for no limit
+     * @return false if the liquidity or the HTLC slots are not enough
+     */
+    public synchronized boolean reservePending(String pubkey, int amt, int maxHtlcs) {
         var node = resolveNode(pubkey);
         if (amt>getLiquidity(pubkey)) return false;
+        if (maxHtlcs > 0 && node.inFlightHtlcs >= maxHtlcs) {
+            rejectedHtlcs++;
+            return false;
+        }
         node.pending+=amt;
+        node.inFlightHtlcs++;
+        maxInFlightHtlcs = Math.max(maxInFlightHtlcs, node1.inFlightHtlcs + node2.inFlightHtlcs);
         return true;
     }
 
+    /**
+     * Release the amount of a HTLC offered by the node, fulfilled, failed or timed out
+     */
     public synchronized void removePending(String pubkey, int amt) {
         var node = resolveNode(pubkey);
         node.pending -=amt;
+        node.inFlightHtlcs--;
+    }
+
+    /**
+     * Queue an update sent by the node, for its next commitment round
+     * @return true if the update is the first of the round
+     */
+    public synchronized boolean queueUpdate(String pubkey, P2PMessage msg, long now) {
+        var node = resolveNode(pubkey);
+        if (node.updates == null) node.updates = new ArrayList<>();
+        node.updates.add(new QueuedUpdate(msg, now));
+        return node.updates.size() == 1;
+    }
+
+    /**
+     * @return when the next commitment round of the node is due, once its oldest update waited the batching delay,
+     * Long.MAX_VALUE if no update is queued
+     */
+    public synchronized long nextCommitmentAt(String pubkey, long batchMs) {
+        var node = resolveNode(pubkey);
+        if (node.updates == null || node.updates.isEmpty()) return Long.MAX_VALUE;
+        return node.updates.getFirst().queuedAt() + batchMs;
+    }
+
+    /**
+     * Sign a commitment round with the updates queued by the node, if due
+     * (commitment_signed, then revoke_and_ack from the peer)
+     * @return the updates signed, to be delivered to the peer in order, empty if the round is not due yet
+     */
+    public synchronized List<P2PMessage> signCommitment(String pubkey, long now, long batchMs) {
+        if (now < nextCommitmentAt(pubkey, batchMs)) return List.of();
+        var node = resolveNode(pubkey);
+        var signed = new ArrayList<P2PMessage>(node.updates.size());
+        for (var update : node.updates) {
+            signed.add(update.msg());
+            queuedMsSum += now - update.queuedAt();
+            queuedMsMax = Math.max(queuedMsMax, now - update.queuedAt());
+        }
+        node.updates.clear();
+        recordCommitment(signed.size());
+        return signed;
+    }
+
+    /**
+     * A commitment round signed with the given updates
+     */
+    public synchronized void recordCommitment(int updates) {
+        commitNumber++;
+        signedUpdates += updates;
     }
 
     public void setPolicy(String pubkey, Policy policy) {
@@ -180,7 +261,18 @@ public class UVChannel implements LNChannel, Serializable, Comparable<LNChannel>
         }
         node1.balance = node1Balance;
         node2.balance = node2Balance;
-        this.commitNumber = getLastCommitNumber()+1;
+    }
+
+    public static String generateCommitmentStatsHeader() {
+        return "channel_id,node1,node2,commitments,updates,updates_per_commitment,avg_queue_ms,max_queue_ms,max_in_flight_htlcs,rejected_htlcs";
+    }
+
+    public synchronized String generateCommitmentStatsCSV() {
+        return String.format("%s,%s,%s,%d,%d,%.2f,%.2f,%d,%d,%d", channel_id, node1.pubkey, node2.pubkey,
+                commitNumber, signedUpdates,
+                commitNumber > 0 ? (double) signedUpdates / commitNumber : 0.0,
+                signedUpdates > 0 ? (double) queuedMsSum / signedUpdates : 0.0,
+                queuedMsMax, maxInFlightHtlcs, rejectedHtlcs);
     }
     public static String generateLabels() {
         final String labelFormat = "%-15s %-6s %-6s %-20s %-12s %-12s";
@@ -1,5 +1,6 @@
 package network;
 
+import message.GossipMsg;
 import message.P2PMessage;
 import misc.UVConfig;
 import org.json.simple.JSONArray;
@@ -7,6 +8,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import stats.*;
 import protocol.*;
+import topology.CsrGraph;
 
 import java.io.*;
 import java.time.Duration;
@@ -15,6 +17,7 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
@@ -23,12 +26,16 @@ public class UVNetwork implements LNetwork {
 
     private UVConfig uvConfig;
     private CountDownLatch bootstrap_latch;
+    // completed along with the latch, to be awaited in virtual time
+    private CompletableFuture<Void> bootstrap_done;
     private final HashMap<String, UVNode> uvnodes;
 
     private List<String> pubkeys_list;
     private String imported_rootnode_graph;
 
     private UVTimechain uvTimechain;
+    // only used when time_mode=virtual, otherwise null
+    private UVEventCalendar eventCalendar;
 
     private boolean bootstrap_started = false;
     private boolean bootstrap_completed = false;
@@ -44,13 +51,20 @@ public class UVNetwork implements LNetwork {
     public UVConfig getConfig() {
         return uvConfig;
     }
-    private final BlockingQueue<String> logQueue = new ArrayBlockingQueue<>(LOG_QUEUE_CAPACITY);
+    // Logging threads may be virtual threads pinned by a monitor (e.g. of the node): offers must never park, as a
+    // lock-based queue would, so a lock-free queue is bounded by counting the queued lines
+    private final BlockingQueue<String> logQueue = new LinkedTransferQueue<>();
+    private final AtomicInteger logQueueSize = new AtomicInteger(0);
     private final AtomicInteger droppedLogMessages = new AtomicInteger(0);
     private volatile boolean logWorkerRunning = false;
     private Thread logWorkerThread;
     private BufferedWriter logfile;
 
     private ScheduledExecutorService p2pExecutor;
+    private NodeServiceScheduler nodeScheduler;
+    // used only with gossip_fabric=log
+    private GossipLog gossipLog;
+    private final AtomicLong peersEpoch = new AtomicLong(0);
 
     private int invoice_thread_pool_size;
     private int bootstrap_thread_pool_size;
@@ -97,6 +111,79 @@ public class UVNetwork implements LNetwork {
     }
 
 
+    /**
+     * Executor for the per-node and per-invoice tasks, that spend most of their time blocked waiting for blocks or
+     * HTLC outcomes. With executor=virtual each task gets its own virtual thread and the pool size is ignored.
+     */
+    private ExecutorService newTaskExecutor(String name, int pool_size) {
+        if (uvConfig.virtual_threads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+        }
+        return Executors.newFixedThreadPool(pool_size, Thread.ofPlatform().name(name + "-", 1).factory());
+    }
+
+    /**
+     * Executor of the workload tasks (node bootstraps, invoices), each run as a simulation actor.
+     * In virtual time a task is counted as an actor as soon as a thread is bound to run it: when submitted if a thread
+     * is free, otherwise when a previous task ends and its thread moves on to the queue. So the clock does not advance
+     * while a task is only waiting for its thread to start, that would take the thread start-up time with the wall clock
+     */
+    private final class WorkloadExecutor {
+        private final ExecutorService executor;
+        private final UVEventCalendar calendar;
+        private final int threads;
+        // tasks submitted and not ended yet
+        private int inFlight = 0;
+
+        private WorkloadExecutor(String name, int pool_size) {
+            this.executor = newTaskExecutor(name, pool_size);
+            this.calendar = eventCalendar;
+            this.threads = uvConfig.virtual_threads ? Integer.MAX_VALUE : pool_size;
+        }
+
+        void submit(Runnable task) {
+            if (calendar==null) {
+                executor.submit(task);
+                return;
+            }
+            boolean started;
+            synchronized (this) {
+                started = inFlight++ < threads;
+                if (started) calendar.submitted();
+            }
+            try {
+                executor.submit(() -> run(task));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    inFlight--;
+                    if (started) calendar.cancelSubmitted();
+                }
+                throw e;
+            }
+        }
+
+        private void run(Runnable task) {
+            calendar.enterSubmitted();
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    // the thread moves on to the next queued task
+                    if (inFlight-- > threads) calendar.submitted();
+                }
+                calendar.exit();
+            }
+        }
+
+        void shutdown() {
+            executor.shutdown();
+        }
+
+        boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+
     private void adjustThreadPoolSizes() {
         // get it from ulimit -a
         int max_threads = uvConfig.max_threads;
@@ -104,20 +191,23 @@ public class UVNetwork implements LNetwork {
         log("Determing appropriate pool sizes... (max threads " + max_threads + ")");
 
         bootstrap_thread_pool_size = uvConfig.bootstrap_nodes;
-        p2p_thread_pool_size = bootstrap_thread_pool_size;
+        // node services are cpu bound and never block, one worker (shard) per core is enough
+        p2p_thread_pool_size = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), max_threads/2));
 
         int peek_bootstrap = bootstrap_thread_pool_size + p2p_thread_pool_size;
-        // during the bootstrap, 2*nodes threads could be potentially executed
+        // during the bootstrap, nodes + cores threads could be potentially executed
         // due to bootstrap + p2p
         log(" > Threads required for bootstrap nodes: "+uvConfig.bootstrap_nodes);
-        log(" > Threads required for p2p: "+p2p_thread_pool_size);
+        log(" > Threads required for p2p (cores): "+p2p_thread_pool_size);
         log(" ---> estimated peek of threads during bootstrap: "+peek_bootstrap);
 
-        if (peek_bootstrap> max_threads) {
+        if (uvConfig.virtual_threads) {
+            log(" ---> bootstrap and invoice tasks will run on virtual threads, max threads only limits p2p workers");
+        }
+        else if (peek_bootstrap> max_threads) {
             log("WARNING: bootstrap peek threads "+peek_bootstrap+ " execeeds max threads...");
-            log(" ---> Reducing both bootstrap and p2p threads pool sizes to "+max_threads/2);
-            bootstrap_thread_pool_size = max_threads/2;
-            p2p_thread_pool_size = max_threads/2;
+            bootstrap_thread_pool_size = max_threads - p2p_thread_pool_size;
+            log(" ---> Reducing bootstrap threads pool size to "+bootstrap_thread_pool_size);
         }
 
         // when processing invoices, only the p2p services are running
@@ -179,6 +269,8 @@ public class UVNetwork implements LNetwork {
         // Keep insertion order so imported topologies can be displayed as loaded.
         this.uvnodes = new LinkedHashMap<>();
         uvTimechain = new UVTimechain(uvConfig.blocktime_ms,this);
+        initEventCalendar();
+        if (uvConfig.gossip_log) gossipLog = new GossipLog();
 
         log(new Date() +":Initializing UVManager...");
         stats = new GlobalStats(this);
@@ -196,6 +288,7 @@ public class UVNetwork implements LNetwork {
     public void bootstrapNetwork() {
 
         Thread.currentThread().setName("Bootstrap");
+        enterWorkload();
         var startTime = new Date();
         bootstrapSessionId = new SimpleDateFormat("yyyyMMddHHmmss").format(startTime);
         print_log(startTime +": Bootstrapping network from scratch...");
@@ -204,6 +297,7 @@ public class UVNetwork implements LNetwork {
 
         bootstrap_started = true;
         bootstrap_latch = new CountDownLatch(uvConfig.bootstrap_nodes);
+        bootstrap_done = new CompletableFuture<>();
         bootstraps_running = 0;
         bootstraps_ended = 0;
 
@@ -225,13 +319,7 @@ public class UVNetwork implements LNetwork {
 
         Arrays.sort(boot_times);
 
-        ExecutorService bootstrapExecutor = Executors.newFixedThreadPool(bootstrap_thread_pool_size, new ThreadFactory() {
-            private final AtomicInteger counter = new AtomicInteger(0);
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "Bootstrap-" + counter.incrementAndGet());
-            }
-        });
+        var bootstrapExecutor = new WorkloadExecutor("Bootstrap", bootstrap_thread_pool_size);
 
 
         print_log("BOOTSTRAP: Creating "+uvConfig.bootstrap_nodes+" node instancies...");
@@ -263,7 +351,9 @@ public class UVNetwork implements LNetwork {
             }
 
             print_log("BOOTSTRAP: Launch complete, waiting for "+bootstrap_latch.getCount()+" threads to finish...");
-            bootstrap_latch.await();
+            // the last bootstrap thread must resume this one before the clock moves on
+            if (eventCalendar!=null) eventCalendar.await(bootstrap_done);
+            else bootstrap_latch.await();
 
         } catch (InterruptedException e) {
             print_log("Interrupted bootstrap exception");
@@ -294,15 +384,45 @@ public class UVNetwork implements LNetwork {
             }
             print_log("(Pruned null entries: "+pruned+") DONE!");
 
+            rebaseChannelGraphs();
+
+            long gossip_received = 0, gossip_duplicates = 0, gossip_coalesced = 0;
+            for (UVNode node : getUVNodeList().values()) {
+                gossip_received += node.getReceivedGossip();
+                gossip_duplicates += node.getDuplicateGossip();
+                gossip_coalesced += node.getCoalescedGossip();
+            }
+            print_log(String.format("Gossip dedup: %d of %d received messages already seen (%.1f%%)",
+                    gossip_duplicates, gossip_received, gossip_received==0 ? 0 : 100.0*gossip_duplicates/gossip_received));
+            print_log("Gossip coalescing: "+gossip_coalesced+" channel updates superseded within a flush");
+
             closeCriticalLog();
             var after = new Date();
             var d = after.getTime()-startTime.getTime();
             print_log("BOOTSTRAP: Completed at "+after+", duration (ms):"+d);
-
+            exitWorkload();
         }
     }
 
 
+    /**
+     * Move the node graphs onto a single base graph of the actual channels, so that each node keeps only what it
+     * does not know, or knows differently
+     */
+    private void rebaseChannelGraphs() {
+        var channels = new HashMap<String, UVChannel>();
+        for (UVNode node : getUVNodeList().values()) {
+            channels.putAll(node.getChannels());
+        }
+        var base = CsrGraph.of(channels.values());
+        long own_edges = 0;
+        for (UVNode node : getUVNodeList().values()) {
+            node.getChannelGraph().rebase(base);
+            own_edges += node.getChannelGraph().getOwnEdgeCount();
+        }
+        print_log("Graphs rebased on shared base of "+base.vertexCount()+" nodes, "+base.edgeCount()+" edges ("+own_edges+" node own edges)");
+    }
+
    private void waitForEmptyQueues(int check_period) {
 
         int warning_timeout = 10000; // 10 sec
@@ -324,7 +444,7 @@ public class UVNetwork implements LNetwork {
                 }
             }
             try {
-                Thread.sleep(check_period);
+                sleepMillis(check_period);
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
@@ -344,7 +464,13 @@ public class UVNetwork implements LNetwork {
     public void startP2PNetwork() {
         print_log("Launching p2p node service threads ...");
         // start p2p actions around every block
-        if (p2pExecutor==null) {
+        if (uvConfig.event_driven_services) {
+            if (nodeScheduler==null) {
+                log("Initializing p2p ready queue scheduler...");
+                nodeScheduler = new NodeServiceScheduler(this, p2p_thread_pool_size);
+            }
+        }
+        else if (p2pExecutor==null && eventCalendar==null) {
             log("Initializing p2p scheduled executor...");
             p2pExecutor = Executors.newScheduledThreadPool(p2p_thread_pool_size, new ThreadFactory() {
                 private final AtomicInteger counter = new AtomicInteger(0);
@@ -356,9 +482,22 @@ public class UVNetwork implements LNetwork {
         }
         for (UVNode n : uvnodes.values()) {
             n.setP2PServices(true);
-            n.p2pHandler = p2pExecutor.scheduleAtFixedRate(n::runServices,0, uvConfig.node_services_tick_ms,TimeUnit.MILLISECONDS);
+            n.p2pHandler = scheduleNodeServices(n);
+        }
+    }
+
+    private Future<?> scheduleNodeServices(UVNode node) {
+        if (nodeScheduler!=null) {
+            // nothing periodic, just drain whatever is already queued
+            nodeScheduler.markRunnable(node);
+            return null;
         }
+        if (eventCalendar!=null) {
+            return eventCalendar.schedulePeriodic(uvConfig.node_services_tick_ms, UVEventCalendar.Phase.SERVICE, node::runServices, node::isP2PRunning);
+        }
+        return p2pExecutor.scheduleAtFixedRate(node::runServices,0, uvConfig.node_services_tick_ms,TimeUnit.MILLISECONDS);
     }
+
     public void stopP2PNetwork() {
         print_log("Stopping p2p nodes services...");
 
@@ -368,6 +507,9 @@ public class UVNetwork implements LNetwork {
                 n.p2pHandler.cancel(false);
             }
         }
+        if (nodeScheduler!=null) {
+            log("Node services runs: "+nodeScheduler.getServiceRuns()+", timed wakeups: "+nodeScheduler.getTimedWakeups());
+        }
 
         print_log("P2P Services stopped");
     }
@@ -609,6 +751,14 @@ public class UVNetwork implements LNetwork {
     @Override
     public void deliverMessage(UVNode peer, P2PMessage message) {
         peer.deliverMessage(message);
+        if (nodeScheduler!=null) nodeScheduler.markRunnable(peer);
+    }
+
+    /**
+     * Request a service round of the node after the delay, for a duty not started by a message delivery
+     */
+    void wakeNodeAfter(UVNode node, long delay_ms) {
+        if (nodeScheduler!=null) nodeScheduler.wakeAfter(node, Math.max(1, delay_ms));
     }
 
 
@@ -616,6 +766,133 @@ public class UVNetwork implements LNetwork {
         return uvTimechain;
     }
 
+    /***************************************************************************************
+     * Gossip log fabric (gossip_fabric=log)
+     */
+
+    GossipLog getGossipLog() {
+        return gossipLog;
+    }
+
+    /**
+     * Called whenever some node adds a new peer, invalidating the cached gossip horizons
+     */
+    void peersChanged() {
+        peersEpoch.incrementAndGet();
+    }
+
+    long getPeersEpoch() {
+        return peersEpoch.get();
+    }
+
+    /**
+     * Publish a gossip message in the log, waking up the nodes that will read it.
+     * Each time a chunk of the log is filled, the chunks already read by all the nodes or expired are dropped
+     */
+    void publishGossip(UVNode broadcaster, String excluded, GossipMsg msg) {
+        int current_block = getTimechain().getCurrentBlockHeight();
+        if (gossipLog.append(new GossipLog.Entry(msg, broadcaster.getPubKey(), excluded, current_block))) {
+            int min_cursor = Integer.MAX_VALUE;
+            // nodes are still added during the bootstrap
+            synchronized (pubkeys_list) {
+                for (var node : uvnodes.values()) min_cursor = Math.min(min_cursor, node.getGossipLogCursor());
+            }
+            gossipLog.compact(min_cursor, current_block - uvConfig.p2p_max_age);
+        }
+        if (nodeScheduler==null) return;
+        for (var node : getNodesWithinHops(broadcaster, uvConfig.p2p_max_hops)) {
+            if (node != broadcaster) nodeScheduler.markRunnable(node);
+        }
+    }
+
+    /**
+     * Breadth first visit of the peers graph
+     * @return the nodes at most hops away from center, center included
+     */
+    Set<UVNode> getNodesWithinHops(UVNode center, int hops) {
+        Set<UVNode> visited = new HashSet<>();
+        visited.add(center);
+        List<UVNode> frontier = List.of(center);
+        for (int h = 0; h < hops && !frontier.isEmpty(); h++) {
+            List<UVNode> next = new ArrayList<>();
+            for (var node : frontier) {
+                for (var peer : node.getPeers().values()) {
+                    if (visited.add(peer)) next.add(peer);
+                }
+            }
+            frontier = next;
+        }
+        return visited;
+    }
+
+    /***************************************************************************************
+     * Simulation time: wall clock by default, global event calendar when time_mode=virtual
+     */
+
+    private void initEventCalendar() {
+        // the ready queue scheduler is bound to the calendar (if any), so a new one is needed
+        if (nodeScheduler!=null) {
+            nodeScheduler.shutdown();
+            nodeScheduler = null;
+        }
+        if (eventCalendar!=null) {
+            eventCalendar.stop();
+            eventCalendar = null;
+        }
+        if (uvConfig.virtual_time) {
+            log("Using virtual time, starting global event calendar...");
+            eventCalendar = new UVEventCalendar(this);
+            eventCalendar.start();
+        }
+    }
+
+    public UVEventCalendar getEventCalendar() {
+        return eventCalendar;
+    }
+
+    public long currentTimeMillis() {
+        return eventCalendar!=null ? eventCalendar.now() : System.currentTimeMillis();
+    }
+
+    public void sleepMillis(long ms) throws InterruptedException {
+        if (eventCalendar!=null) eventCalendar.sleep(ms);
+        else Thread.sleep(ms);
+    }
+
+    /**
+     * Wait for a future to complete, for at most timeout_ms of simulation time
+     * @return the completion value, or timeoutValue if not completed in time
+     */
+    public <T> T awaitMillis(CompletableFuture<T> future, long timeout_ms, T timeoutValue) throws InterruptedException {
+        if (eventCalendar!=null) return eventCalendar.await(future, timeout_ms, timeoutValue);
+        try {
+            return future.get(timeout_ms, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return timeoutValue;
+        }
+    }
+
+    /**
+     * Run a task as a simulation actor: in virtual time, the clock will not advance while the task is running,
+     * but only when it is waiting for some future event (blocks, HTLC completion...)
+     */
+    public void runWorkload(Runnable task) {
+        enterWorkload();
+        try {
+            task.run();
+        } finally {
+            exitWorkload();
+        }
+    }
+
+    private void enterWorkload() {
+        if (eventCalendar!=null) eventCalendar.enter();
+    }
+
+    private void exitWorkload() {
+        if (eventCalendar!=null) eventCalendar.exit();
+    }
+
     /**
      * Updates the list the currently known pubkeys, to be used for genel sim purposes
      */
@@ -675,6 +952,7 @@ public class UVNetwork implements LNetwork {
     }
 
     private void writeLogBatch(List<String> lines) {
+        logQueueSize.addAndGet(-lines.size());
         if (logfile == null || lines.isEmpty()) {
             return;
         }
@@ -711,9 +989,11 @@ public class UVNetwork implements LNetwork {
         if (!logWorkerRunning) {
             return;
         }
-        if (logQueue.offer(line)) {
+        if (logQueueSize.incrementAndGet() <= LOG_QUEUE_CAPACITY) {
+            logQueue.offer(line);
             return;
         }
+        logQueueSize.decrementAndGet();
         int dropped = droppedLogMessages.incrementAndGet();
         if (dropped == 1 || dropped % 1000 == 0) {
             System.err.println("WARNING: logfile queue full, dropped messages: " + dropped);
@@ -759,6 +1039,23 @@ public class UVNetwork implements LNetwork {
         } catch (Exception e) {
             logException("Error while stopping timechain during shutdown", e);
         }
+        try {
+            if (eventCalendar != null) {
+                stopP2PNetwork();
+                eventCalendar.stop();
+            }
+        } catch (Exception e) {
+            logException("Error while stopping event calendar during shutdown", e);
+        }
+        try {
+            if (nodeScheduler != null) {
+                stopP2PNetwork();
+                nodeScheduler.shutdown();
+                nodeScheduler = null;
+            }
+        } catch (Exception e) {
+            logException("Error while stopping p2p scheduler during shutdown", e);
+        }
         try {
             if (p2pExecutor != null) {
                 stopP2PNetwork();
@@ -1003,6 +1300,9 @@ public class UVNetwork implements LNetwork {
         bootstraps_running = uvnodes.size();
         bootstraps_ended = uvnodes.size();
         adjustThreadPoolSizes();
+        initEventCalendar();
+        // gossip in the log is not part of the saved status
+        gossipLog = uvConfig.gossip_log ? new GossipLog() : null;
     }
 
     private String describeLoadStatusError(String file, Throwable failure) {
@@ -1107,8 +1407,12 @@ public class UVNetwork implements LNetwork {
 
     private void waitForBlocks(int blocks) {
         if (blocks==0) return;
-        var ready_to_go = getTimechain().getWaitBlocksLatch(blocks);
         try {
+            if (eventCalendar!=null) {
+                eventCalendar.awaitBlocks(getTimechain(), blocks);
+                return;
+            }
+            var ready_to_go = getTimechain().getWaitBlocksLatch(blocks);
             ready_to_go.await();
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
@@ -1117,6 +1421,7 @@ public class UVNetwork implements LNetwork {
 
     public void bootstrapNode(UVNode node) {
 
+        enterWorkload();
         try {
             // get a deterministic thread-related seed to create the Random
             Random thread_rng = threadRng.get();
@@ -1132,7 +1437,7 @@ public class UVNetwork implements LNetwork {
             log("BOOTSTRAP: Starting on "+node.getPubKey()+", target channel openings: "+target_channel_openings);
 
             node.setP2PServices(true);
-            node.p2pHandler = p2pExecutor.scheduleAtFixedRate(node::runServices,0, uvConfig.node_services_tick_ms,TimeUnit.MILLISECONDS);
+            node.p2pHandler = scheduleNodeServices(node);
 
             final int min_ch_size = profile.getIntAttribute("min_channel_size");
             // we don't want granularity in channel sizes to be less than 100k
@@ -1199,6 +1504,7 @@ public class UVNetwork implements LNetwork {
             decreaseBootStrapCount();
         } finally {
             log("BOOTSTRAP: Completed on "+node.getPubKey()+" (finally block)");
+            exitWorkload();
         }
     }
 
@@ -1206,6 +1512,7 @@ public class UVNetwork implements LNetwork {
         bootstraps_running--;
         bootstraps_ended++;
         getBootstrapLatch().countDown();
+        if (getBootstrapLatch().getCount()==0) bootstrap_done.complete(null);
     }
 
 
@@ -1215,76 +1522,73 @@ public class UVNetwork implements LNetwork {
             return;
         }
 
-        // node_events_per_block = 0.01 -> each node has (on average) one event every 100 blocks
-        // so, if there are 1000 nodes, 10 node events will happen globally at each block
-        double events_per_block = pubkeys_list.size()*node_events_per_block;
-        int expected_total_events = (int)(events_per_block*blocks_duration);
-
-        print_log("Generating " +expected_total_events + " invoice events " + "(min/max amt:" + min_amt+","+ max_amt + ", max_fees" + max_fees + ")");
+        enterWorkload();
+        try {
+            // node_events_per_block = 0.01 -> each node has (on average) one event every 100 blocks
+            // so, if there are 1000 nodes, 10 node events will happen globally at each block
+            double events_per_block = pubkeys_list.size()*node_events_per_block;
+            int expected_total_events = (int)(events_per_block*blocks_duration);
 
-        int end = getTimechain().getCurrentBlockHeight()+blocks_duration;
+            print_log("Generating " +expected_total_events + " invoice events " + "(min/max amt:" + min_amt+","+ max_amt + ", max_fees" + max_fees + ")");
 
-        print_log("Expected end after block "+end);
+            int end = getTimechain().getCurrentBlockHeight()+blocks_duration;
 
+            print_log("Expected end after block "+end);
 
-        print_log("Instatianting new executor with "+invoice_thread_pool_size+ " threads...");
-        ThreadFactory namedThreadFactory = new ThreadFactory() {
-            private final AtomicInteger count = new AtomicInteger(0);
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setName("InvoiceProcess-" + count.incrementAndGet());
-                return thread;
-            }
-        };
 
-        var invoiceExecutor = Executors.newFixedThreadPool(invoice_thread_pool_size, namedThreadFactory);
+            if (uvConfig.virtual_threads) print_log("Instatianting new executor using virtual threads...");
+            else print_log("Instatianting new executor with "+invoice_thread_pool_size+ " threads...");
 
-        // so to be sure to align to a just found block timing
-        waitForBlocks(1);
-        Instant start_gen = Instant.now();
+            var invoiceExecutor = new WorkloadExecutor("InvoiceProcess", invoice_thread_pool_size);
 
-        for (int nb = 0; nb < blocks_duration; nb++) {
-            int current_block = getTimechain().getCurrentBlockHeight();
-            int eventsThisBlock;
+            // so to be sure to align to a just found block timing
+            waitForBlocks(1);
+            Instant start_gen = Instant.now();
 
-            // Keep configured rate immutable and derive per-block event count.
-            if (events_per_block < 1.0) {
-                eventsThisBlock = random.nextDouble(1) <= events_per_block ? 1 : 0;
-            } else {
-                int baseEvents = (int) events_per_block;
-                double fractional = events_per_block - baseEvents;
-                eventsThisBlock = baseEvents + (random.nextDouble(1) <= fractional ? 1 : 0);
-            }
+            for (int nb = 0; nb < blocks_duration; nb++) {
+                int current_block = getTimechain().getCurrentBlockHeight();
+                int eventsThisBlock;
 
-            for (int eb = 0; eb < eventsThisBlock; eb++ ) {
-                var sender = getRandomNode();
-                UVNode dest;
-                do {
-                    dest = getRandomNode();
+                // Keep configured rate immutable and derive per-block event count.
+                if (events_per_block < 1.0) {
+                    eventsThisBlock = random.nextDouble(1) <= events_per_block ? 1 : 0;
+                } else {
+                    int baseEvents = (int) events_per_block;
+                    double fractional = events_per_block - baseEvents;
+                    eventsThisBlock = baseEvents + (random.nextDouble(1) <= fractional ? 1 : 0);
                 }
-                while (dest.equals(sender));
 
-                if (max_amt==min_amt) max_amt++;
-                int amount = random.nextInt(max_amt+1-min_amt)+min_amt;
-                var invoice = dest.generateInvoice(amount,amount+ " "+ sender.getPubKey()+" to "+dest.getPubKey(),true);
-                invoiceExecutor.submit(()->sender.processInvoice(invoice, max_fees,false));
+                for (int eb = 0; eb < eventsThisBlock; eb++ ) {
+                    var sender = getRandomNode();
+                    UVNode dest;
+                    do {
+                        dest = getRandomNode();
+                    }
+                    while (dest.equals(sender));
+
+                    if (max_amt==min_amt) max_amt++;
+                    int amount = random.nextInt(max_amt+1-min_amt)+min_amt;
+                    var invoice = dest.generateInvoice(amount,amount+ " "+ sender.getPubKey()+" to "+dest.getPubKey(),true);
+                    invoiceExecutor.submit(()->sender.processInvoice(invoice, max_fees,false));
+                }
+                // we are still in the same block after all traffic has been generated
+                // not sure if this check is required, but doing it for sanity check
+                int current_block2 = getTimechain().getCurrentBlockHeight();
+                if (current_block2==current_block)
+                    waitForBlocks(1);
+                //else print_log("Warning: skipping waiting for next block, starting: "+current_block+" current: "+current_block2);
             }
-            // we are still in the same block after all traffic has been generated
-            // not sure if this check is required, but doing it for sanity check
-            int current_block2 = getTimechain().getCurrentBlockHeight();
-            if (current_block2==current_block)
-                waitForBlocks(1);
-            //else print_log("Warning: skipping waiting for next block, starting: "+current_block+" current: "+current_block2);
-        }
-        print_log("Completed events generation");
-        print_log("Waiting for queues to flush...");
-        // the wait interval is just a reasonable value of ms between checks
-        waitForEmptyQueues(uvConfig.bootstrap_nodes*5);
-        Instant end_gen = Instant.now();
-        Duration timeElapsed = Duration.between(start_gen, end_gen);
-        print_log("Time elapsed: " + timeElapsed.toMillis()/1000 + " seconds");
-        invoiceExecutor.shutdown();
+            print_log("Completed events generation");
+            print_log("Waiting for queues to flush...");
+            // the wait interval is just a reasonable value of ms between checks
+            waitForEmptyQueues(uvConfig.bootstrap_nodes*5);
+            Instant end_gen = Instant.now();
+            Duration timeElapsed = Duration.between(start_gen, end_gen);
+            print_log("Time elapsed: " + timeElapsed.toMillis()/1000 + " seconds");
+            invoiceExecutor.shutdown();
+        } finally {
+            exitWorkload();
+        }
     }
 
 
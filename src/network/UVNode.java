@@ -5,14 +5,20 @@ import topology.ChannelGraph;
 import protocol.*;
 import stats.*;
 import misc.*;
+import topology.LNDPathFinder;
+import topology.MinCostFlow;
+import topology.MissionControl;
 import topology.Path;
 import topology.PathFinder;
 import topology.PathFinderFactory;
+import topology.RouteCache;
 
 import java.io.*;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 public class UVNode implements LNode, Serializable,Comparable<UVNode> {
@@ -36,32 +42,61 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
     transient private UVNetwork uvNetwork;
     transient private ChannelGraph channelGraph;
     transient private PathFinder pathFinder;
+    // search results reused across invoices, null if disabled
+    transient private RouteCache routeCache;
+    // channel failures learned from the payment attempts, null if disabled
+    transient private MissionControl missionControl;
     transient private ConcurrentHashMap<String, UVChannel> channels = new ConcurrentHashMap<>();
     transient private ConcurrentHashMap<String, UVNode> peers = new ConcurrentHashMap<>();
     transient private boolean p2pIsRunning = false;
 
     // p2p and messages
     transient private ArrayList<String> saved_peers_id;
-    transient public ScheduledFuture<?> p2pHandler;
+    transient public Future<?> p2pHandler;
+    // ready-queue scheduling state, see NodeServiceScheduler
+    transient AtomicInteger serviceRequests = new AtomicInteger(0);
+    transient AtomicLong serviceWakeAt = new AtomicLong(0);
     transient private Queue<GossipMsg> GossipMessageQueue = new ConcurrentLinkedQueue<>();
+    // identities of the gossip already received, expired after p2p_max_age blocks
+    transient private Set<GossipMsg.Key> seenGossip = ConcurrentHashMap.newKeySet();
+    transient private int seenGossipPruneBlock = 0;
+    transient private AtomicLong receivedGossip = new AtomicLong(0);
+    transient private AtomicLong duplicateGossip = new AtomicLong(0);
+    transient private AtomicLong coalescedGossip = new AtomicLong(0);
+    // gossip_fabric=log: next entry to be read (also read by the network to compact the log), and nodes within
+    // p2p_max_hops computed at some peers epoch
+    transient private volatile int gossipLogCursor = 0;
+    transient private Set<String> gossipHorizon = Set.of();
+    transient private long gossipHorizonEpoch = -1;
     transient private Queue<MsgOpenChannel> channelsToAcceptQueue = new ConcurrentLinkedQueue<>();
     transient private Queue<MsgAcceptChannel> channelsAcceptedQueue = new ConcurrentLinkedQueue<>();
     transient private Queue<MsgUpdateAddHTLC> updateAddHTLCQueue = new ConcurrentLinkedQueue<>();
     transient private Queue<MsgUpdateFulFillHTLC> updateFulFillHTLCQueue = new ConcurrentLinkedQueue<>();
     transient private Queue<MsgUpdateFailHTLC> updateFailHTLCQueue = new ConcurrentLinkedQueue<>();
-    transient private ConcurrentHashMap<Long, LNInvoice> generatedInvoices = new ConcurrentHashMap<>();
+    transient private InvoiceStore generatedInvoices = new InvoiceStore();
     transient private ConcurrentHashMap<String, LNInvoice> pendingInvoices = new ConcurrentHashMap<>();
     transient private HashMap<String, LNInvoice> payedInvoices = new HashMap<>();
-    transient private HashMap<String, MsgUpdateAddHTLC> receivedHTLC = new HashMap<>();
-    transient private ConcurrentHashMap<String, MsgUpdateAddHTLC> pendingHTLC = new ConcurrentHashMap<>();
+    // the offered HTLCs, own or forwarded, until fulfilled, failed or timed out
+    transient private HTLCTable pendingHTLC = new HTLCTable();
+    // the shards of the payments to this node, held until they reach the invoice amount
+    transient private HashMap<String, HeldShards> heldShards = new HashMap<>();
+    // outcome of the HTLCs offered for own invoices: true when fulfilled, false when failed
+    transient private ConcurrentHashMap<String, CompletableFuture<Boolean>> htlcAttempts = new ConcurrentHashMap<>();
     transient private HashMap<String, MsgOpenChannel> sentChannelOpenings = new HashMap<>();
     transient private Set<String> pendingAcceptedChannelPeers = ConcurrentHashMap.newKeySet();
     // associate a tx with its broadcast height
     transient private HashMap<UVTransaction,Integer> waitingTxConf = new HashMap<>();
 
     transient GlobalStats.NodeStats nodeStats = new GlobalStats.NodeStats();
-    // temporary store for an invoice failure reason
-    transient private Map<String,String> failure_reason = new HashMap<>();
+    // temporary store for the failure reason of an invoice HTLC
+    transient private Map<String,String> failure_reason = new ConcurrentHashMap<>();
+    // temporary store for the channel reported by the failure of an invoice HTLC, if any
+    transient private Map<String,String> failure_channel = new ConcurrentHashMap<>();
+
+    // a HTLC sent for an invoice, with the whole amount or a shard of it
+    private record Shard(String htlcKey, Path path, int pathIndex, int amount, CompletableFuture<Boolean> outcome, long deadline) {}
+
+    private record HeldShards(long deadline, List<MsgUpdateAddHTLC> htlcs) {}
     /**
      * Create a lightning node instance attaching it to some Ultraviolet Manager
      *
@@ -76,9 +111,22 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         updateOnChainBalance(funding);
         channelGraph = new ChannelGraph(pubkey);
         pathFinder = PathFinderFactory.of(PathFinderFactory.Strategy.BFS, uvNetwork.getConfig());
+        routeCache = newRouteCache(uvNetwork.getConfig());
+        missionControl = newMissionControl(uvNetwork.getConfig());
         this.profile = profile;
     }
 
+    private static RouteCache newRouteCache(UVConfig config) {
+        if (config.route_cache_size <= 0) return null;
+        return new RouteCache(config.route_cache_size,
+                config.route_cache_channel_invalidation ? RouteCache.Invalidation.CHANNELS : RouteCache.Invalidation.EPOCH);
+    }
+
+    private static MissionControl newMissionControl(UVConfig config) {
+        if (config.mission_control_half_life_blocks <= 0) return null;
+        return new MissionControl(config.mission_control_half_life_blocks);
+    }
+
     public void setPathFinder(PathFinder pathFinder) {
         this.pathFinder = pathFinder;
     }
@@ -87,13 +135,31 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         return pathFinder.findPaths(this.channelGraph, start,end,topk);
     }
 
-    private PathFinder newSearchPathFinder(int paymentAmountSat) {
+    /**
+     * @param maxFees the fees the payment can pay, out of the local liquidity
+     */
+    private PathFinder newSearchPathFinder(int paymentAmountSat, int maxFees) {
         // Invoice routing must not mutate the node-shared path finder while other searches are in flight.
         var searchPathFinder = PathFinderFactory.of(PathFinderFactory.strategyOf(pathFinder), uvNetwork.getConfig());
         searchPathFinder.setPaymentAmount(paymentAmountSat);
+        if (missionControl != null && searchPathFinder instanceof LNDPathFinder lnd) {
+            lnd.setMissionControl(missionControl, uvNetwork.getTimechain().getCurrentBlockHeight());
+        }
+        if (searchPathFinder instanceof MinCostFlow mcf) mcf.setLocalLiquidity(localLiquidity(maxFees));
         return searchPathFinder;
     }
 
+    /**
+     * @return the outbound liquidity of the channels, less the fees the payment can pay
+     */
+    private Map<String, Integer> localLiquidity(int maxFees) {
+        var liquidity = new HashMap<String, Integer>();
+        for (var channel : channels.values()) {
+            liquidity.put(channel.getChannelId(), Math.max(0, channel.getLiquidity(this.getPubKey()) - maxFees));
+        }
+        return liquidity;
+    }
+
     public PathFinder getPathFinder() {
         return pathFinder;
     }
@@ -123,11 +189,11 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
     public Queue<MsgUpdateAddHTLC> getUpdateAddHTLCQueue() {
         return updateAddHTLCQueue;
     }
-    public ConcurrentHashMap<Long, LNInvoice> getGeneratedInvoices() {
-        return generatedInvoices;
-    }
-    public HashMap<String, MsgUpdateAddHTLC> getReceivedHTLC() {
-        return receivedHTLC;
+    /**
+     * @return the invoices generated since the node started, including the settled and expired ones
+     */
+    public long getGeneratedInvoiceCount() {
+        return generatedInvoices.generatedCount();
     }
     public HashMap<String, MsgOpenChannel> getSentChannelOpenings() {
         return sentChannelOpenings;
@@ -144,8 +210,11 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
     public HashMap<String, LNInvoice> getPayedInvoices() {
         return payedInvoices;
     }
-    public ConcurrentHashMap<String, MsgUpdateAddHTLC> getPendingHTLC() {
-        return pendingHTLC;
+    /**
+     * @return the HTLCs offered with the payment hash and not resolved yet, by this node or forwarded
+     */
+    public List<MsgUpdateAddHTLC> getPendingHTLC(String paymentHash) {
+        return pendingHTLC.byPaymentHash(paymentHash).stream().map(HTLCTable.Entry::offered).toList();
     }
     public Set<String> getPendingAcceptedChannelPeers() {
         return pendingAcceptedChannelPeers;
@@ -256,6 +325,12 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         if (pathFinder == null) {
             pathFinder = PathFinderFactory.of(PathFinderFactory.Strategy.BFS, uvm.getConfig());
         }
+        if (routeCache == null) {
+            routeCache = newRouteCache(uvm.getConfig());
+        }
+        if (missionControl == null) {
+            missionControl = newMissionControl(uvm.getConfig());
+        }
     }
 
     @Override
@@ -273,8 +348,10 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         R = BigInteger.valueOf(secret).toByteArray();
         var H = CryptoKit.bytesToHexString(CryptoKit.sha256(R));
         var invoice = new LNInvoice(H, amount, this.getPubKey(), msg);
-        if (generatedInvoices == null) generatedInvoices = new ConcurrentHashMap<>();
-        generatedInvoices.put(secret, invoice);
+        if (generatedInvoices == null) generatedInvoices = new InvoiceStore();
+        long now = uvNetwork.currentTimeMillis();
+        generatedInvoices.prune(now);
+        generatedInvoices.add(secret, invoice, now + uvNetwork.getConfig().invoice_expiry_ms);
         return invoice;
     }
 
@@ -352,21 +429,59 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
 
         String logMessage;
 
-        var searchResult = newSearchPathFinder(invoice.getAmount())
-                .findPaths(this.channelGraph, this.getPubKey(), invoice.getDestination(), MAX_CANDIDATE_PATHS_PER_INVOICE);
+        var config = uvNetwork.getConfig();
+        var strategy = PathFinderFactory.strategyOf(pathFinder);
+        // the min cost flow splits the amount across its paths, each carrying a shard
+        boolean flow = strategy == PathFinderFactory.Strategy.MIN_COST_FLOW;
+        // with multi-part payments, the search and the filters look for the paths able to carry a shard
+        boolean mpp = config.mpp_max_shards > 1;
+        boolean multipart = mpp || flow;
+        int searchAmount = flow || !mpp ? invoice.getAmount() : Math.min(invoice.getAmount(),
+                Math.max(config.mpp_min_shard_sat, Math.ceilDiv(invoice.getAmount(), config.mpp_max_shards)));
+
+        // the epoch is read before the view, so that a change in between invalidates the cached result
+        long epoch = this.channelGraph.getEpoch();
+        // a flow is split for the exact amount and the local liquidity of the moment, that the epoch does not track
+        var cache = flow ? null : routeCache;
+        var searchResult = cache == null ? null : cache.get(invoice.getDestination(), searchAmount, strategy, epoch);
+        int cacheHits = searchResult != null ? 1 : 0;
+        int cacheMisses = cache != null && searchResult == null ? 1 : 0;
+
+        int expandedEdgesSaved = 0;
+        if (searchResult == null) {
+            var graph = this.channelGraph.view();
+            var searchPathFinder = newSearchPathFinder(searchAmount, max_fees);
+            searchResult = searchPathFinder.findPaths(graph, this.getPubKey(), invoice.getDestination(), MAX_CANDIDATE_PATHS_PER_INVOICE);
+
+            // diagnostic only: a forward twin search on the same view, with the same hop limit, measures the
+            // expansion spared by the bidirectional one
+            if (config.pathfinding_measure_saved_edges && searchPathFinder.isBidirectional()) {
+                var forwardPathFinder = newSearchPathFinder(searchAmount, max_fees);
+                forwardPathFinder.setBidirectional(false);
+                forwardPathFinder.setForwardHopLimit(true);
+                var forwardStats = forwardPathFinder
+                        .findPaths(graph, this.getPubKey(), invoice.getDestination(), MAX_CANDIDATE_PATHS_PER_INVOICE).stats();
+                expandedEdgesSaved = forwardStats.expandedEdges() - searchResult.stats().expandedEdges();
+            }
+            if (cache != null) cache.put(invoice.getDestination(), searchAmount, strategy, epoch, searchResult);
+        }
         var searchStats = searchResult.stats();
-        var pathFinderStrategy = PathFinderFactory.strategyOf(pathFinder).name().toLowerCase(Locale.ROOT);
+        var pathFinderStrategy = strategy.name().toLowerCase(Locale.ROOT);
         List<Path> candidatePaths = new ArrayList<>();
+        // the amounts of the candidate paths of a flow
+        List<Integer> candidateAmounts = new ArrayList<>();
 
         for (var pathDetails : searchResult.paths()) {
             var path = pathDetails.path();
+            // a cached flow may be for another amount
+            int pathAmount = pathDetails.amountSat() > 0 ? Math.min(pathDetails.amountSat(), invoice.getAmount()) : searchAmount;
 
             if (!checkPathPolicies(path)) {
                 filtered_policy++;
                 continue;
             }
 
-            if (!checkPathCapacity(path, invoice.getAmount())) {
+            if (!checkPathCapacity(path, pathAmount)) {
                 debug(()->"Discarding path: missing capacity" + (path));
                 filtered_capacity++;
                 continue;
@@ -374,19 +489,20 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
 
             // please notice that this does not exclude further missing local liquidy events
             // that will happen at the momennt of actual reservation, and will be accoutned in another place
-            if (!checkOutboundPathLiquidity(path, invoice.getAmount())) {
+            if (!checkOutboundPathLiquidity(path, pathAmount)) {
                 debug(()->"Discarding path: missing liquidity on local channel" +(path));
                 filtered_local_liquidity++;
                 continue;
             }
 
-            if (getPathFees(path, invoice.getAmount()) > max_fees) {
+            if (getPathFees(path, pathAmount) > max_fees) {
                 debug(()->"Discarding path: missing max fees " + (path));
                 filtered_max_fees++;
                 continue;
             }
 
             candidatePaths.add(path);
+            candidateAmounts.add(pathAmount);
         }
 
         boolean success_htlc = false;
@@ -395,7 +511,10 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         int attempt_failed_temporary_channel = 0;
         int attempt_failed_local_liquidity = 0;
         int attempt_failed_timeout = 0;
+        int attempt_failed_mpp_timeout = 0;
         int attempt_failed_unknown = 0;
+        int attempt_skipped_mission_control = 0;
+        int mpp_shards_settled = 0;
 
         if (!candidatePaths.isEmpty()) {
 
@@ -405,62 +524,171 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             log(logMessage);
             if (showui) System.out.println(logMessage);
 
-            //  conservative large delay set to the same as p2p queue updates
-            final long invoice_check_delay = uvNetwork.getConfig().node_services_tick_ms;
-
             pendingInvoices.put(hash, invoice);
 
-            for (var path : candidatePaths) {
-                attempted_paths++;
-                logMessage = "Trying path " + attempted_paths + " of " + candidatePaths.size() + " for invoice " + hash;
-                if (showui) System.out.println(logMessage);
-                log(logMessage);
-
-                routeInvoiceOnPath(invoice, path);
-                debug(()->"Waiting for pending HTLC "+invoice.getHash());
-
-                long timeoutMs = Math.max(
-                        15_000L,
-                        8L * Math.max(1, path.getSize()) * uvNetwork.getConfig().node_services_tick_ms
-                );
-                long deadline = System.currentTimeMillis() + timeoutMs;
-
-                while (pendingHTLC.containsKey(hash) && System.currentTimeMillis() < deadline) {
-                    try {
-                        Thread.sleep(invoice_check_delay);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
+            // each attempted path carries a shard, the whole amount first: with mpp, the shards finding no path or
+            // failing are split in halves (as lnd does), up to mpp_max_shards, while the others wait at the receiver.
+            // The shards of a flow are the amounts of its paths, plus the amount they leave
+            var toSend = new ArrayDeque<Integer>();
+            addShards(toSend, flow ? candidateAmounts : List.of(), invoice.getAmount());
+            // a path is tried again only with the shards smaller than the one that failed on it
+            var failedAmount = new ArrayList<Integer>(Collections.nCopies(candidatePaths.size(), Integer.MAX_VALUE));
+            // the smallest shard a path was skipped for by mission control, counted once per path and amount
+            var skippedAmount = new ArrayList<Integer>(Collections.nCopies(candidatePaths.size(), Integer.MAX_VALUE));
+            // the flow of the amount left by the failed shards is solved again, within the liquidity they revealed
+            var flowSolver = flow ? (MinCostFlow) newSearchPathFinder(invoice.getAmount(), max_fees) : null;
+            int feesInFlight = 0;
+            // amounts of the shards in flight by channel, bounding the next shards on the same channels
+            var allocated = new HashMap<String, Integer>();
+            var inFlight = new ArrayList<Shard>();
+            // the receiver does not know the invoice anymore (expired), no other shard can succeed
+            boolean rejected = false;
+
+            while (true) {
+                while (!toSend.isEmpty()) {
+                    int shardAmount = toSend.peek();
+                    Path path = null;
+                    int pathIndex = -1;
+                    for (int i = 0; i < candidatePaths.size() && path == null; i++) {
+                        var candidate = candidatePaths.get(i);
+                        if (shardAmount >= failedAmount.get(i) || !canCarryShard(candidate, shardAmount, allocated, multipart)
+                                || feesInFlight + getPathFees(candidate, shardAmount) > max_fees) continue;
+                        // the failures of the previous attempts may have ruled out the next paths, for this amount:
+                        // the path is left to the smaller shards
+                        if (missionControl != null && missionControl.probability(candidate, shardAmount,
+                                uvNetwork.getTimechain().getCurrentBlockHeight()) < config.mission_control_min_probability) {
+                            if (shardAmount < skippedAmount.get(i)) {
+                                skippedAmount.set(i, shardAmount);
+                                attempt_skipped_mission_control++;
+                            }
+                            continue;
+                        }
+                        failedAmount.set(i, 0);
+                        path = candidate;
+                        pathIndex = i;
                     }
-                }
-
-                if (pendingHTLC.containsKey(hash)) {
-                    var timedOut = pendingHTLC.remove(hash);
-                    if (timedOut != null) {
-                        var ch = channels.get(timedOut.getChannel_id());
-                        if (ch != null) {
-                            ch.removePending(this.getPubKey(), timedOut.getAmount());
+                    if (path == null) {
+                        // the flow of the amount left, solved again on the channels left by the failures
+                        if (flowSolver != null && candidatePaths.size() < MAX_CANDIDATE_PATHS_PER_INVOICE) {
+                            int left = toSend.stream().mapToInt(Integer::intValue).sum();
+                            flowSolver.setLocalLiquidity(localLiquidity(max_fees - feesInFlight));
+                            flowSolver.setInFlight(allocated);
+                            flowSolver.setPaymentAmount(left);
+                            var replanned = flowSolver.findPaths(channelGraph.view(), this.getPubKey(), invoice.getDestination(),
+                                    MAX_CANDIDATE_PATHS_PER_INVOICE - candidatePaths.size()).paths();
+                            if (!replanned.isEmpty()) {
+                                var amounts = new ArrayList<Integer>();
+                                for (var details : replanned) {
+                                    candidatePaths.add(details.path());
+                                    failedAmount.add(Integer.MAX_VALUE);
+                                    skippedAmount.add(Integer.MAX_VALUE);
+                                    amounts.add(details.amountSat());
+                                }
+                                log("Solved again the flow of " + left + " for invoice " + hash + " on " + replanned.size() + " paths");
+                                toSend.clear();
+                                addShards(toSend, amounts, left);
+                                continue;
+                            }
                         }
+                        if (!canSplitShard(shardAmount, toSend.size() + inFlight.size())) break;
+                        toSend.poll();
+                        toSend.add(shardAmount / 2);
+                        toSend.add(shardAmount - shardAmount / 2);
+                        continue;
+                    }
+                    toSend.poll();
+                    attempted_paths++;
+                    logMessage = "Trying path " + attempted_paths + " of " + candidatePaths.size() + " for invoice " + hash
+                            + (multipart ? ", shard of " + shardAmount : "");
+                    if (showui) System.out.println(logMessage);
+                    log(logMessage);
+
+                    long timeoutMs = Math.max(
+                            15_000L,
+                            8L * Math.max(1, path.getSize()) * config.node_services_tick_ms
+                    );
+                    // a shard may wait for the others at the receiver
+                    if (multipart) timeoutMs += config.mpp_timeout_ms;
+
+                    var shard = routeInvoiceOnPath(invoice, path, shardAmount, pathIndex, timeoutMs);
+                    if (shard == null) {
+                        toSend.addFirst(shardAmount);
+                        attempt_failed_local_liquidity++;
+                        logMessage = "Could not route invoice: " + hash + ", missing local liquidity on path #" + attempted_paths;
+                        log(logMessage);
+                        if (showui) System.out.println(logMessage);
+                        continue;
                     }
-                    failure_reason.put(hash, "attempt_timeout");
-                    log("Timed out waiting HTLC completion for invoice " + hash + " on path #" + attempted_paths);
+                    inFlight.add(shard);
+                    feesInFlight += getPathFees(path, shardAmount);
+                    for (var edge : path.edges()) allocated.merge(edge.id(), shardAmount, Integer::sum);
                 }
+                if (inFlight.isEmpty()) break;
 
-                debug(()->"Cleared pending HTLC "+hash);
+                debug(()->"Waiting for pending HTLC "+invoice.getHash());
 
-                if (payedInvoices.containsKey(hash)) {
-                    String successMessage = " Successfully routed invoice " + hash;
-                    if (showui) System.out.println(successMessage);
-                    log(successMessage);
+                // completed by processUpdateFulfillHTLC/processUpdateFailHTLC, until the earliest deadline
+                long deadline = inFlight.stream().mapToLong(Shard::deadline).min().getAsLong();
+                var anyOutcome = CompletableFuture.anyOf(inFlight.stream().map(Shard::outcome).toArray(CompletableFuture[]::new));
+                try {
+                    uvNetwork.awaitMillis(anyOutcome, Math.max(0, deadline - uvNetwork.currentTimeMillis()), null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
 
-                    success_htlc = true;
-                    break; // exit the for cycle of trying the paths...
-                } else {
-                    var reason = failure_reason.get(hash);
+                for (var it = inFlight.iterator(); it.hasNext(); ) {
+                    var shard = it.next();
+                    var outcome = shard.outcome().getNow(null);
+                    if (outcome == null) {
+                        if (uvNetwork.currentTimeMillis() < shard.deadline() && !Thread.currentThread().isInterrupted()) continue;
+
+                        htlcAttempts.remove(shard.htlcKey());
+                        var timedOut = pendingHTLC.resolve(shard.htlcKey(), HTLCTable.State.TIMED_OUT);
+                        if (timedOut != null) {
+                            var ch = channels.get(timedOut.offered().getChannel_id());
+                            if (ch != null) {
+                                ch.removePending(this.getPubKey(), timedOut.offered().getAmount());
+                            }
+                        }
+                        failure_reason.put(shard.htlcKey(), "attempt_timeout");
+                        log("Timed out waiting HTLC completion for invoice " + hash + " on path " + shard.path());
+                        outcome = false;
+                    }
+                    it.remove();
+                    feesInFlight -= getPathFees(shard.path(), shard.amount());
+                    for (var edge : shard.path().edges()) allocated.merge(edge.id(), -shard.amount(), Integer::sum);
+
+                    debug(()->"Cleared pending HTLC "+shard.htlcKey());
+
+                    var erringChannel = failure_channel.remove(shard.htlcKey());
+                    var reason = failure_reason.remove(shard.htlcKey());
+                    if (outcome) {
+                        mpp_shards_settled++;
+                        if (missionControl != null) missionControl.recordSuccess(shard.path(), shard.amount());
+                        continue;
+                    }
+                    if (multipart) failedAmount.set(shard.pathIndex(), shard.amount());
+                    if ("incorrect_or_unknown_payment_details".equals(reason)) rejected = true;
+                    if (rejected) toSend.clear();
+                    else if (canSplitShard(shard.amount(), toSend.size() + inFlight.size() + 1)) {
+                        toSend.add(shard.amount() / 2);
+                        toSend.add(shard.amount() - shard.amount() / 2);
+                    }
+                    else toSend.add(shard.amount());
+                    // only a liquidity failure bounds the residual capacity, a CLTV failure would cap it wrongly
+                    if (flowSolver != null && erringChannel != null && "temporary_channel_failure".equals(reason)) {
+                        for (var edge : shard.path().edges()) {
+                            if (edge.id().equals(erringChannel)) flowSolver.boundLiquidity(edge.id(), edge.source(), shard.amount());
+                        }
+                    }
+                    if (missionControl != null && erringChannel != null &&
+                            missionControl.recordFailure(shard.path(), shard.amount(), erringChannel, reason, uvNetwork.getTimechain().getCurrentBlockHeight())) {
+                        // the cached results through the channel were ranked without the new penalty
+                        if (routeCache != null) routeCache.invalidateChannel(erringChannel);
+                    }
 
                     if (reason==null) reason = "unknown";
 
-                    // TOFIX: reason should not be null
                     switch (reason) {
                         case "expiry_too_soon":
                             attempt_failed_expiry_too_soon++;
@@ -468,22 +696,31 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
                         case "temporary_channel_failure":
                             attempt_failed_temporary_channel++;
                             break;
-                        case "missing local liquidity":
-                            attempt_failed_local_liquidity++;
-                            break;
                         case "attempt_timeout":
                             attempt_failed_timeout++;
                             break;
+                        case "mpp_timeout":
+                            attempt_failed_mpp_timeout++;
+                            break;
                         default:
                             debug(()->"No reason for failure of "+hash);
                             attempt_failed_unknown++;
                             break;
                     }
-                    logMessage = "Could not route invoice: " + hash+ ", "+reason+ " on path #"+attempted_paths;
+                    logMessage = "Could not route invoice: " + hash+ ", "+reason+ " on path "+shard.path();
                     log(logMessage);
                     if (showui) System.out.println(logMessage);
                 }
             }
+
+            if (payedInvoices.containsKey(hash)) {
+                String successMessage = " Successfully routed invoice " + hash
+                        + (multipart ? " in " + mpp_shards_settled + " shards" : "");
+                if (showui) System.out.println(successMessage);
+                log(successMessage);
+
+                success_htlc = true;
+            }
         }
 
         if (!success_htlc) {
@@ -496,7 +733,6 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
 
         // the invoice, success or not, is not useful anymore
         pendingInvoices.remove(invoice.getHash());
-        failure_reason.remove(invoice.getHash());
 
         // The invoice CSV is stage-oriented: search, filtering, then actual routing attempts.
         var report = new GlobalStats.NodeStats.InvoiceReport(
@@ -510,11 +746,15 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
                 searchStats.returnedPaths(),
                 searchStats.investigatedStates(),
                 searchStats.expandedEdges(),
+                expandedEdgesSaved,
+                cacheHits,
+                cacheMisses,
                 searchStats.excludedByCapacity(),
                 searchStats.excludedByVisitedState(),
                 searchStats.excludedByCycle(),
                 searchStats.excludedByMaxHops(),
                 searchStats.excludedByCost(),
+                searchStats.excludedByBudget(),
                 filtered_policy,
                 filtered_capacity,
                 filtered_local_liquidity,
@@ -525,25 +765,63 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
                 attempt_failed_expiry_too_soon,
                 attempt_failed_local_liquidity,
                 attempt_failed_timeout,
+                attempt_failed_mpp_timeout,
                 attempt_failed_unknown,
+                attempt_skipped_mission_control,
+                mpp_shards_settled,
                 success_htlc);
 
         nodeStats.invoiceReports.add(report);
     }
 
+    /**
+     * @return true if the path can carry the amount, within the capacity left by the shards in flight on its channels
+     * (and the local liquidity, with many shards)
+     */
+    private boolean canCarryShard(Path path, int amount, Map<String, Integer> allocated, boolean multipart) {
+        for (ChannelGraph.Edge e : path.edges()) {
+            if (e.capacity() - allocated.getOrDefault(e.id(), 0) < amount) return false;
+        }
+        // with a single shard, the reservation of the whole amount on the first hop is part of the attempt
+        return !multipart || channels.get(path.edges().getLast().id()).getLiquidity(this.getPubKey())
+                >= amount + getPathFees(path, amount);
+    }
+
+    /**
+     * Queue the shards of the amounts, within the total amount, and the amount they leave
+     */
+    private static void addShards(Queue<Integer> toSend, List<Integer> amounts, int amount) {
+        for (int i = 0; i < amounts.size() && amount > 0; i++) {
+            int shardAmount = Math.min(amounts.get(i), amount);
+            toSend.add(shardAmount);
+            amount -= shardAmount;
+        }
+        if (amount > 0) toSend.add(amount);
+    }
+
+    /**
+     * @param shards the shards of the payment, waiting or in flight, including this one
+     */
+    private boolean canSplitShard(int amount, int shards) {
+        var config = uvNetwork.getConfig();
+        return shards < config.mpp_max_shards && amount / 2 >= config.mpp_min_shard_sat;
+    }
+
     /**
      * This method is responsible for routing an invoice through a specific path in the Lightning Network.
      *
      * The method expects an protocol.LNInvoice instance and an ArrayList of topology.ChannelGraph.Edge objects
      * which represent the path for routing the payment in the Lightning Network.
      *
+     * @param amount the amount delivered to the destination, the invoice amount or a shard of it
+     * @param timeoutMs the time to wait for the outcome
+     * @return the shard sent, or null if the amount could not be reserved on the first hop
      */
 
-    private synchronized void routeInvoiceOnPath(LNInvoice invoice, Path path) {
+    private synchronized Shard routeInvoiceOnPath(LNInvoice invoice, Path path, int amount, int pathIndex, long timeoutMs) {
         log("Routing on path:"+ path);
         // if Alice is the sender, and Dina the receiver: paths = Dina, Carol, Bob, Alice
 
-        final int amount = invoice.getAmount();
         final int baseBlockHeight = uvNetwork.getTimechain().getCurrentBlockHeight();
         final var finalCLTV = baseBlockHeight+invoice.getMinFinalCltvExpiry();
 
@@ -581,24 +859,27 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             }
         }
 
-        var first_hop = path.getEnd();
         var channel_id = path.edges().getLast().id();
         var local_channel = channels.get(channel_id);
-        var amt_to_forward= invoice.getAmount()+cumulatedFees;
+        var amt_to_forward= amount+cumulatedFees;
 
         debug(()->"Trying to reserve pending for node "+this.getPubKey()+ " , required: "+amt_to_forward+ " in channel "+local_channel.getChannelId());
-        if (!local_channel.reservePending(this.getPubKey(),amt_to_forward)) {
+        if (!local_channel.reservePending(this.getPubKey(),amt_to_forward,uvNetwork.getConfig().commitment_max_htlcs)) {
 
-            failure_reason.put(invoice.getHash(),"missing local liquidity");
             // even if previuously checked, the local liquidity might have been reserved in the meanwhile...
-            log("Warning:Cannot reserve "+amt_to_forward+" on first hop channel "+local_channel.getChannelId());
-            return;
+            log("Warning:Cannot reserve "+amt_to_forward+" or a HTLC slot on first hop channel "+local_channel.getChannelId());
+            return null;
         }
 
         var update_htcl = new MsgUpdateAddHTLC(channel_id,local_channel.getNextHTLCid(),amt_to_forward,invoice.getHash(),out_cltv,onionLayer);
+        var key = HTLCTable.key(channel_id, update_htcl.getId());
 
-        sendToPeer(uvNetwork.getUVNode(first_hop),update_htcl, uvNetwork);
-        pendingHTLC.put(update_htcl.getPayment_hash(),update_htcl);
+        var attempt = new CompletableFuture<Boolean>();
+        htlcAttempts.put(key, attempt);
+        // the outcome can only be processed by this node after the method returns (synchronized)
+        sendUpdate(channel_id, update_htcl);
+        pendingHTLC.offer(update_htcl, null);
+        return new Shard(key, path, pathIndex, amount, attempt, uvNetwork.currentTimeMillis() + timeoutMs);
     }
 
     /**
@@ -613,9 +894,13 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         var channel_peer_id = getChannelPeer(channel_id).getPubKey();
         log("UpdateFulfillHTLC invoice hash " + computed_hash + " from "+channel_peer_id+ " via " + channel_id);
 
+        var key = HTLCTable.key(channel_id, msg.getId());
+        var entry = pendingHTLC.get(key);
+
         // As expected, I offered a HTLC with the same hash
-        if (pendingHTLC.containsKey(computed_hash)) {
-            var htlc = pendingHTLC.get(computed_hash);
+        if (entry != null && entry.offered().getPayment_hash().equals(computed_hash)) {
+            pendingHTLC.resolve(key, HTLCTable.State.FULFILLED);
+            var htlc = entry.offered();
 
             channels.get(channel_id).removePending(this.getPubKey(),htlc.getAmount());
 
@@ -624,28 +909,30 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             }
 
             // If I forwarded an incoming htlc, must also send back the fulfill message
-            if (receivedHTLC.containsKey(computed_hash)) {
-                var received_htlc = receivedHTLC.get(computed_hash);
+            var received_htlc = entry.incoming();
+            if (received_htlc != null) {
                 var new_msg = new MsgUpdateFulFillHTLC(received_htlc.getChannel_id(),received_htlc.getId(),preimage);
-                sendToPeer(getChannelPeer(received_htlc.getChannel_id()),new_msg, uvNetwork);
-                receivedHTLC.remove(computed_hash);
+                sendUpdate(received_htlc.getChannel_id(), new_msg);
                 // I successfully partecipated to some HTLC routing, my balances will change
                 nodeStats.incrementForwardeVolume(received_htlc.getAmount());
             }
             // I offered, but did not receive the htlc, I'm initial sender?
             else {
                 if (pendingInvoices.containsKey(computed_hash)) {
-                    log("LN invoice for hash "+computed_hash+ " Completed!");
-                    payedInvoices.put(computed_hash,pendingInvoices.get(computed_hash));
-                    nodeStats.incrementInvoiceProcessingSuccessses();
-                    nodeStats.incrementInvoiceProcessingVolume(pendingInvoices.get(computed_hash).getAmount());
+                    // the receiver settles all the shards of a payment at once, the first one completes the invoice
+                    if (!payedInvoices.containsKey(computed_hash)) {
+                        log("LN invoice for hash "+computed_hash+ " Completed!");
+                        payedInvoices.put(computed_hash,pendingInvoices.get(computed_hash));
+                        nodeStats.incrementInvoiceProcessingSuccessses();
+                        nodeStats.incrementInvoiceProcessingVolume(pendingInvoices.get(computed_hash).getAmount());
+                    }
                 }
                 else {
                     log("FATAL: Missing pending invoice for " + computed_hash);
                     throw new IllegalStateException("Node "+this.getPubKey()+": Missing pending Invoice for hash "+computed_hash);
                 }
             }
-            pendingHTLC.remove(computed_hash);
+            completeAttempt(key, true);
         }
         else {
             log("Late/unknown fulfill HTLC for hash "+computed_hash+ ", ignoring");
@@ -654,55 +941,63 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
     /**
      * This function processes the failure of an HTLC (Hash Time-Locked Contract) update message.
      * If the failure update message is found among the pending HTLCs, it removes the
-     * HTLC from the pendingHTLC map, updates the channel's list of pending HTLCs, and reduces the node's statistics of successful HTLCs. If the outgoing
+     * HTLC from the pendingHTLC table, updates the channel's list of pending HTLCs, and reduces the node's statistics of successful HTLCs. If the outgoing
      */
 
     private synchronized void processUpdateFailHTLC(final MsgUpdateFailHTLC msg) {
         log("Processing: " + msg);
         var ch_id = msg.getChannel_id();
+        var key = HTLCTable.key(ch_id, msg.getId());
 
-        for (MsgUpdateAddHTLC pending_msg : pendingHTLC.values()) {
-
-            if (pending_msg.getChannel_id().equals(ch_id) && pending_msg.getId()==msg.getId()) {
-                final var hash = pending_msg.getPayment_hash();
-
-                pendingHTLC.remove(hash);
-                debug(()->"Removing pending "+pending_msg.getAmount()+" on channel "+ch_id);
-                channels.get(ch_id).removePending(this.getPubKey(),pending_msg.getAmount());
-
-                // I previouosly forwarded this HTLC, so I shoould send back the failure msg to the previous node
-                // no stats involved, the node is not responsible for the failure
-                if (receivedHTLC.containsKey(hash)) {
-                    var prev_htlc = receivedHTLC.get(hash);
-                    var prev_ch_id = prev_htlc.getChannel_id();
-                    var prev_peer = getChannelPeer(prev_ch_id);
-                    var fail_msg = new MsgUpdateFailHTLC(prev_ch_id, prev_htlc.getId(), msg.getReason());
-                    debug(()->"Sending "+fail_msg+ " to "+prev_peer.getPubKey());
-                    sendToPeer(prev_peer, fail_msg, uvNetwork);
-                    receivedHTLC.remove(hash);
-                } // I offered, but did not receive the htlc, I'm initial sender?
-                else {
-                    // The origin node can detect the sender of the error message by matching the hmac field with the computed HMAC.
-                    // https://github.com/lightning/bolts/blob/master/04-onion-routing.md#failure-messages
-
-                    // TODO: This could be abstracted in the future if necessary, by putting some field in the fail message
-
-                    // this set the reason of current HTLC routing attempt failure, so that we can make some invoice specific stats
-                    // however, no need to increase stats about invoice failures, the invoice could still succeed in another attempt...
-                    failure_reason.put(hash,msg.getReason());
-                    log("Original sender of "+msg+ " recognize failure due to "+msg.getReason());
-                }
-                return;
-            }
+        final var entry = pendingHTLC.resolve(key, HTLCTable.State.FAILED);
+        if (entry == null) {
+            log("Late/unknown fail HTLC " + msg + ", ignoring");
+            return;
         }
+        final var pending_msg = entry.offered();
+
+        debug(()->"Removing pending "+pending_msg.getAmount()+" on channel "+ch_id);
+        channels.get(ch_id).removePending(this.getPubKey(),pending_msg.getAmount());
+
+        // I previouosly forwarded this HTLC, so I shoould send back the failure msg to the previous node
+        // no stats involved, the node is not responsible for the failure
+        var prev_htlc = entry.incoming();
+        if (prev_htlc != null) {
+            var prev_ch_id = prev_htlc.getChannel_id();
+            var prev_peer = getChannelPeer(prev_ch_id);
+            var fail_msg = new MsgUpdateFailHTLC(prev_ch_id, prev_htlc.getId(), msg.getReason(), msg.getErring_channel_id());
+            debug(()->"Sending "+fail_msg+ " to "+prev_peer.getPubKey());
+            sendUpdate(prev_ch_id, fail_msg);
+        } // I offered, but did not receive the htlc, I'm initial sender?
+        else {
+            // The origin node can detect the sender of the error message by matching the hmac field with the computed HMAC.
+            // https://github.com/lightning/bolts/blob/master/04-onion-routing.md#failure-messages
+            // Here the fail message carries the erring channel instead.
+
+            // this set the reason of current HTLC routing attempt failure, so that we can make some invoice specific stats
+            // however, no need to increase stats about invoice failures, the invoice could still succeed in another attempt...
+            if (msg.getReason() != null) failure_reason.put(key,msg.getReason());
+            if (msg.getErring_channel_id() != null) failure_channel.put(key, msg.getErring_channel_id());
+            log("Original sender of "+msg+ " recognize failure due to "+msg.getReason());
+            completeAttempt(key, false);
+        }
+    }
 
-        log("Late/unknown fail HTLC " + msg + ", ignoring");
+    /**
+     * Resume the invoice processing waiting for the outcome of the HTLC, if any
+     */
+    private void completeAttempt(String htlcKey, boolean fulfilled) {
+        var attempt = htlcAttempts.remove(htlcKey);
+        if (attempt != null) attempt.complete(fulfilled);
     }
 
-    private void failHTLC(final MsgUpdateAddHTLC msg, String reason) {
-        var fail_msg = new MsgUpdateFailHTLC(msg.getChannel_id(), msg.getId(), reason);
+    /**
+     * @param erringChannel the channel this node could not forward the HTLC on
+     */
+    private void failHTLC(final MsgUpdateAddHTLC msg, String reason, String erringChannel) {
+        var fail_msg = new MsgUpdateFailHTLC(msg.getChannel_id(), msg.getId(), reason, erringChannel);
         nodeStats.incrementForwardingFailures(reason);
-        sendToPeer(getChannelPeer(msg.getChannel_id()), fail_msg, uvNetwork);
+        sendUpdate(msg.getChannel_id(), fail_msg);
     }
 
     /**
@@ -718,30 +1013,43 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         // check if I'm the final destination
         if (payload.getShortChannelId().equals("00")) {
 
-            final var secret = payload.getPayment_secret().get();
-
-            for (long s: generatedInvoices.keySet()) {
-                var preimage_bytes = BigInteger.valueOf(s).toByteArray();
-                var hash = CryptoKit.bytesToHexString(CryptoKit.sha256(preimage_bytes));
-                if (hash.equals(secret)) {
-                    var own_invoice =  generatedInvoices.get(s);
-                    log("Received HTLC of own invoice "+own_invoice);
-
-                    if (currentBlock <= cltv_expiry) {
-                        var incomingPeer = getChannelPeer(msg.getChannel_id());
-                        var to_send = new MsgUpdateFulFillHTLC(msg.getChannel_id(),msg.getId(),s);
-                        sendToPeer(incomingPeer,to_send, uvNetwork);
-                    }
-                    else {
-                        log("Final node discarding late HTLC: expired in block "+cltv_expiry+ " hash:"+msg.getPayment_hash());
-                        var fail_msg = new MsgUpdateFailHTLC(msg.getChannel_id(), msg.getId(), "expiry_too_soon");
-                        var incomingPeer = getChannelPeer(msg.getChannel_id());
-                        sendToPeer(incomingPeer,fail_msg, uvNetwork);
-                    }
+            final var hash = payload.getPayment_secret().get();
+            long now = uvNetwork.currentTimeMillis();
+            generatedInvoices.prune(now);
+            var entry = generatedInvoices.get(hash, now);
+            if (entry == null) {
+                // never generated, already settled or expired (BOLT 4)
+                log("Final node failing HTLC of unknown invoice, hash:"+hash);
+                var fail_msg = new MsgUpdateFailHTLC(msg.getChannel_id(), msg.getId(), "incorrect_or_unknown_payment_details");
+                sendUpdate(msg.getChannel_id(), fail_msg);
+                return;
+            }
+            var own_invoice = entry.invoice();
+            log("Received HTLC of own invoice "+own_invoice);
+
+            if (currentBlock <= cltv_expiry) {
+                // the shards of a multi-part payment are held until they reach the invoice amount (BOLT 4),
+                // a single part payment is settled right away
+                var shards = heldShards.computeIfAbsent(hash, h ->
+                        new HeldShards(now + uvNetwork.getConfig().mpp_timeout_ms, new ArrayList<>()));
+                shards.htlcs().add(msg);
+                if (shards.htlcs().stream().mapToLong(MsgUpdateAddHTLC::getAmount).sum() < own_invoice.getAmount()) {
+                    log("Holding shard "+shards.htlcs().size()+" of "+hash);
                     return;
                 }
+                heldShards.remove(hash);
+                generatedInvoices.settle(hash);
+                for (var shard : shards.htlcs()) {
+                    var to_send = new MsgUpdateFulFillHTLC(shard.getChannel_id(),shard.getId(),entry.preimage());
+                    sendUpdate(shard.getChannel_id(), to_send);
+                }
+            }
+            else {
+                log("Final node discarding late HTLC: expired in block "+cltv_expiry+ " hash:"+msg.getPayment_hash());
+                var fail_msg = new MsgUpdateFailHTLC(msg.getChannel_id(), msg.getId(), "expiry_too_soon");
+                sendUpdate(msg.getChannel_id(), fail_msg);
             }
-            throw new IllegalStateException(" Received update_add_htlc, but no generated invoice was found!");
+            return;
         }
 
         // I'm not the final destination, must forward the HTLC
@@ -750,7 +1058,7 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             log("Unknown forwarding channel " + payload.getShortChannelId()
                     + " for HTLC " + msg.getPayment_hash()
                     + ", failing upstream");
-            failHTLC(msg, "temporary_channel_failure");
+            failHTLC(msg, "temporary_channel_failure", payload.getShortChannelId());
             return;
         }
 
@@ -779,14 +1087,14 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         if ((currentBlock > cltv_expiry) || (cltv_expiry - currentBlock) < cltv_expiry_delta) {
             var reason = "expiry_too_soon";
             log("Expired HTLC: cltv_expiry=" + cltv_expiry + ", out cltv_expiry_delta=" + cltv_expiry_delta + " , hash:" + msg.getPayment_hash());
-            failHTLC(msg, reason);
+            failHTLC(msg, reason, forwardingChannel.getChannelId());
             return;
         }
 
-        if (!forwardingChannel.reservePending(this.getPubKey(), amt_forward)) {
+        if (!forwardingChannel.reservePending(this.getPubKey(), amt_forward, uvNetwork.getConfig().commitment_max_htlcs)) {
             var reason = "temporary_channel_failure";
-            log("Not enough local liquidity to forward " + amt_forward + " in channel " + forwardingChannel.getChannelId());
-            failHTLC(msg, reason);
+            log("Not enough local liquidity or HTLC slots to forward " + amt_forward + " in channel " + forwardingChannel.getChannelId());
+            failHTLC(msg, reason, forwardingChannel.getChannelId());
             return;
         }
 
@@ -801,7 +1109,7 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             log("Missing inner onion layer while forwarding HTLC " + msg.getPayment_hash()
                     + " on channel " + forwardingChannel.getChannelId()
                     + ", failing upstream");
-            failHTLC(msg, "temporary_channel_failure");
+            failHTLC(msg, "temporary_channel_failure", forwardingChannel.getChannelId());
             return;
         }
         var payhash = msg.getPayment_hash();
@@ -809,12 +1117,10 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         var new_msg = new MsgUpdateAddHTLC(forwardingChannel.getChannelId(), forwardingChannel.getNextHTLCid(),amt_forward,payhash,cltv,onionPacket.get());
 
         debug(()->"Forwarding "+new_msg);
-        receivedHTLC.put(msg.getPayment_hash(),msg);
-        pendingHTLC.put(new_msg.getPayment_hash(), new_msg);
+        pendingHTLC.offer(new_msg, msg);
         nodeStats.incrementForwardingSuccesses();
 
-        var next_channel_peer = getChannelPeer(forwardingChannel.getChannelId());
-        sendToPeer(next_channel_peer,new_msg, uvNetwork);
+        sendUpdate(forwardingChannel.getChannelId(), new_msg);
     }
 
     private String getMyChannelWith(String node_id) {
@@ -883,7 +1189,7 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         }
 
         var peer = uvNetwork.getUVNode(peerPubKey);
-        peers.putIfAbsent(peer.getPubKey(),peer);
+        if (peers.putIfAbsent(peer.getPubKey(),peer)==null) uvNetwork.peersChanged();
         var tempChannelId = generateTempChannelId(peerPubKey);
 
         log("Opening channel to "+peerPubKey+ " (temp_id: "+tempChannelId+", size:"+channel_size+")");
@@ -937,7 +1243,7 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             return;
         }
 
-        peers.putIfAbsent(channel_peer.getPubKey(),channel_peer);
+        if (peers.putIfAbsent(channel_peer.getPubKey(),channel_peer)==null) uvNetwork.peersChanged();
         var acceptance = new MsgAcceptChannel(temporary_channel_id, uvNetwork.getConfig().minimum_depth, uvNetwork.getConfig().to_self_delay,this.getPubKey());
         sendToPeer(channel_peer,acceptance, uvNetwork);
     }
@@ -1041,12 +1347,62 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
        if (current_age> uvNetwork.getConfig().p2p_max_age) return;
        if (msg.getForwardings()>= uvNetwork.getConfig().p2p_max_hops)  return;
 
+       if (uvNetwork.getGossipLog()!=null) {
+           // the log entry already reaches all the nodes within p2p_max_hops, no need to forward
+           if (msg.getForwardings()==0) uvNetwork.publishGossip(this,fromID,msg);
+           return;
+       }
+
        for (UVNode peer: peers.values()) {
             if (peer.getPubKey().equals(fromID)) continue;
             sendToPeer(peer,msg, uvNetwork);
         }
     }
 
+    /**
+     * Send an update of the HTLCs of a local channel (add, fulfill, fail) to the channel peer.
+     * With commitment_batch_ms > 0 the update waits for the next commitment round of this node on the channel, signed
+     * by signCommitments() with all the updates queued meanwhile, otherwise each update is signed in a round of its own
+     */
+    private void sendUpdate(String channel_id, P2PMessage msg) {
+        var channel = channels.get(channel_id);
+        int batchMs = uvNetwork.getConfig().commitment_batch_ms;
+        if (batchMs > 0) {
+            // also sent by the invoice processing, not only while running the services
+            if (channel.queueUpdate(this.getPubKey(), msg, uvNetwork.currentTimeMillis())) uvNetwork.wakeNodeAfter(this, batchMs);
+            return;
+        }
+        channel.recordCommitment(1);
+        sendToPeer(getChannelPeer(channel_id), msg, uvNetwork);
+    }
+
+    /**
+     * Deliver the updates of the commitment rounds due on the local channels
+     */
+    private synchronized void signCommitments() {
+        int batchMs = uvNetwork.getConfig().commitment_batch_ms;
+        if (batchMs <= 0) return;
+        long now = uvNetwork.currentTimeMillis();
+        for (var channel : channels.values()) {
+            var signed = channel.signCommitment(this.getPubKey(), now, batchMs);
+            if (signed.isEmpty()) continue;
+            log("Signed commitment of " + signed.size() + " updates on " + channel.getChannelId());
+            var peer = getChannelPeer(channel.getChannelId());
+            for (var update : signed) sendToPeer(peer, update, uvNetwork);
+        }
+    }
+
+    /**
+     * @return when the next commitment round of this node is due on some channel, Long.MAX_VALUE if none
+     */
+    private long nextCommitmentAt() {
+        int batchMs = uvNetwork.getConfig().commitment_batch_ms;
+        if (batchMs <= 0) return Long.MAX_VALUE;
+        long next = Long.MAX_VALUE;
+        for (var channel : channels.values()) next = Math.min(next, channel.nextCommitmentAt(this.getPubKey(), batchMs));
+        return next;
+    }
+
     private void sendToPeer(UVNode peer, P2PMessage msg, LNetwork network) {
        //debug("Sending message "+msg+ " to "+peer.getPubKey());
        //peer.deliverMessage(msg);
@@ -1080,9 +1436,11 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             // assuming all the other message type are gossip
             default ->  {
                 var message = (GossipMsg) msg;
-                if (!GossipMessageQueue.contains(message)) {
+                receivedGossip.incrementAndGet();
+                if (seenGossip.add(message.getKey())) {
                     GossipMessageQueue.add(message);
                 }
+                else duplicateGossip.incrementAndGet();
             }
         }
     }
@@ -1091,6 +1449,46 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         return this.GossipMessageQueue;
     }
 
+    /**
+     * @return the fraction of received gossip messages discarded as already seen
+     */
+    public double getGossipDuplicateRate() {
+        long received = receivedGossip.get();
+        return received == 0 ? 0 : (double) duplicateGossip.get() / received;
+    }
+
+    public long getReceivedGossip() {
+        return receivedGossip.get();
+    }
+
+    public long getDuplicateGossip() {
+        return duplicateGossip.get();
+    }
+
+    public long getCoalescedGossip() {
+        return coalescedGossip.get();
+    }
+
+    int getGossipLogCursor() {
+        return gossipLogCursor;
+    }
+
+    private boolean hasUnreadGossipLog() {
+        var gossipLog = uvNetwork.getGossipLog();
+        return gossipLog != null && gossipLogCursor < gossipLog.size();
+    }
+
+    /**
+     * Forget the gossip older than p2p_max_age, that would not be forwarded anymore anyway
+     */
+    private void pruneSeenGossip() {
+        final int current_block = uvNetwork.getTimechain().getCurrentBlockHeight();
+        if (current_block == seenGossipPruneBlock) return;
+        seenGossipPruneBlock = current_block;
+        final int max_age = uvNetwork.getConfig().p2p_max_age;
+        seenGossip.removeIf(key -> current_block - key.timestamp() > max_age);
+    }
+
     public synchronized void setP2PServices(boolean status) {
        this.p2pIsRunning = status;
     }
@@ -1107,56 +1505,136 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
     private void processGossip() {
 
         int max_msg = uvNetwork.getConfig().gossip_flush_size;
+        pruneSeenGossip();
 
+        var batch = new ArrayList<GossipMsg>();
         while (isP2PRunning() && !GossipMessageQueue.isEmpty() && max_msg>0) {
             max_msg--;
-            GossipMsg msg = GossipMessageQueue.poll();
-
-            switch (msg.getType()) {
-                case CHANNEL_ANNOUNCE -> {
-                    var announce_msg = (GossipMsgChannelAnnouncement) msg.nextMsgToForward(this.getPubKey());
-                    var new_channel_id = announce_msg.getChannelId();
-                    if (!channelGraph.hasChannel(new_channel_id)) {
-                        // synchronized
-                        this.channelGraph.addAnnouncedChannel(announce_msg);
-                        broadcastToPeers(msg.getSender(),announce_msg);
-                    }
+            batch.add(GossipMessageQueue.poll());
+        }
+        processGossipBatch(batch);
+    }
+
+    /**
+     * Reading the gossip log from the cursor, skipping the entries that would not have been received with flooding:
+     * own broadcasts, entries older than p2p_max_age, and entries broadcast from nodes beyond p2p_max_hops
+     */
+    private void processGossipLog() {
+        final var gossipLog = uvNetwork.getGossipLog();
+        final int end = gossipLog.size();
+        final int current_block = uvNetwork.getTimechain().getCurrentBlockHeight();
+        final int max_age = uvNetwork.getConfig().p2p_max_age;
+        int max_msg = uvNetwork.getConfig().gossip_flush_size;
+        pruneSeenGossip();
+
+        long epoch = uvNetwork.getPeersEpoch();
+        if (epoch != gossipHorizonEpoch) {
+            var horizon = new HashSet<String>();
+            for (var node : uvNetwork.getNodesWithinHops(this, uvNetwork.getConfig().p2p_max_hops))
+                horizon.add(node.getPubKey());
+            gossipHorizon = horizon;
+            gossipHorizonEpoch = epoch;
+        }
+
+        var batch = new ArrayList<GossipMsg>();
+        while (isP2PRunning() && gossipLogCursor < end && max_msg>0) {
+            var entry = gossipLog.get(gossipLogCursor);
+            if (entry == null) {
+                // compacted meanwhile: the dropped entries were either too old or already read
+                gossipLogCursor = gossipLog.base();
+                continue;
+            }
+            gossipLogCursor++;
+            if (current_block - entry.block() > max_age) continue;
+            if (pubkey.equals(entry.broadcaster()) || pubkey.equals(entry.excluded())) continue;
+            if (!gossipHorizon.contains(entry.broadcaster())) continue;
+
+            receivedGossip.incrementAndGet();
+            if (!seenGossip.add(entry.msg().getKey())) {
+                duplicateGossip.incrementAndGet();
+                continue;
+            }
+            max_msg--;
+            batch.add(entry.msg());
+        }
+        processGossipBatch(batch);
+    }
+
+    private record UpdateSlot(String channelId, String signerId) { }
 
+    /**
+     * Process a flushed batch of gossip in arrival order, coalescing the channel updates: only the newest update for
+     * each channel direction (channel_id, signer) is applied and forwarded, the others would be overwritten anyway
+     */
+    private void processGossipBatch(List<GossipMsg> batch) {
+        Map<UpdateSlot, Integer> newest = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i) instanceof GossipMsgChannelUpdate update) {
+                var slot = new UpdateSlot(update.getChannelId(), update.getSignerId());
+                var prev = newest.get(slot);
+                // same timestamp: the last received wins, as when applied in order
+                if (prev == null || batch.get(prev).getTimeStamp() <= update.getTimeStamp()) newest.put(slot, i);
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            var msg = batch.get(i);
+            if (msg instanceof GossipMsgChannelUpdate update &&
+                    newest.get(new UpdateSlot(update.getChannelId(), update.getSignerId())) != i) {
+                coalescedGossip.incrementAndGet();
+                continue;
+            }
+            processGossipMsg(msg);
+        }
+    }
+
+    private void processGossipMsg(GossipMsg msg) {
+        switch (msg.getType()) {
+            case CHANNEL_ANNOUNCE -> {
+                var announce_msg = (GossipMsgChannelAnnouncement) msg.nextMsgToForward(this.getPubKey());
+                var new_channel_id = announce_msg.getChannelId();
+                if (!channelGraph.hasChannel(new_channel_id)) {
+                    // synchronized
+                    this.channelGraph.addAnnouncedChannel(announce_msg);
+                    broadcastToPeers(msg.getSender(),announce_msg);
                 }
-                // TODO: 4 times per day, per channel (antonopoulos)
-                case CHANNEL_UPDATE -> {
-                    var message = (GossipMsgChannelUpdate) msg;
-                    // skip channel updates of own channels
-                    var updater_id = message.getSignerId();
-                    var channel_id = message.getChannelId();
-
-                    // sent from my channel partners, update related data
-                    if (channels.containsKey(channel_id)) {
-                        channels.get(channel_id).setPolicy(updater_id,message.getUpdatedPolicy());
+
+            }
+            // TODO: 4 times per day, per channel (antonopoulos)
+            case CHANNEL_UPDATE -> {
+                var message = (GossipMsgChannelUpdate) msg;
+                // skip channel updates of own channels
+                var updater_id = message.getSignerId();
+                var channel_id = message.getChannelId();
+
+                // sent from my channel partners, update related data
+                if (channels.containsKey(channel_id)) {
+                    channels.get(channel_id).setPolicy(updater_id,message.getUpdatedPolicy());
+                    getChannelGraph().updateChannel(message);
+                    if (routeCache != null) routeCache.invalidateChannel(channel_id);
+                    var next = message.nextMsgToForward(this.getPubKey());
+                    broadcastToPeers(message.getSender(),next);
+                } // not my local channel, but I have an entry to be updated...
+                else {
+                    //debug("Received update for non local channel ");
+                    if (getChannelGraph().hasChannel(channel_id)) {
+                        //debug("GOSSIP: Updating non-local channel "+channel_id);
                         getChannelGraph().updateChannel(message);
+                        if (routeCache != null) routeCache.invalidateChannel(channel_id);
                         var next = message.nextMsgToForward(this.getPubKey());
                         broadcastToPeers(message.getSender(),next);
-                    } // not my local channel, but I have an entry to be updated...
+                    }
                     else {
-                        //debug("Received update for non local channel ");
-                        if (getChannelGraph().hasChannel(channel_id)) {
-                            //debug("GOSSIP: Updating non-local channel "+channel_id);
-                            getChannelGraph().updateChannel(message);
-                            var next = message.nextMsgToForward(this.getPubKey());
-                            broadcastToPeers(message.getSender(),next);
-                        }
-                        else {
-                            //debug("GOSSIP: Skipping update for unknown channel "+channel_id);
-                        }
+                        //debug("GOSSIP: Skipping update for unknown channel "+channel_id);
                     }
-
-                    //https://github.com/lightning/bolts/blob/master/07-routing-gossip.md#the-channel_update-message
-                    /*
-                    The receiving node:
-                    if the short_channel_id does NOT match a previous channel_announcement, OR if the channel has been closed in the meantime:
-                    MUST ignore channel_updates that do NOT correspond to one of its own channels.
-                     */
                 }
+
+                //https://github.com/lightning/bolts/blob/master/07-routing-gossip.md#the-channel_update-message
+                /*
+                The receiving node:
+                if the short_channel_id does NOT match a previous channel_announcement, OR if the channel has been closed in the meantime:
+                MUST ignore channel_updates that do NOT correspond to one of its own channels.
+                 */
             }
         }
     }
@@ -1176,7 +1654,11 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             // handled as soon as possible, just check at very services tick
             processHTLCMsgQueue();
 
-            long now = System.currentTimeMillis();
+            expireHeldShards();
+
+            signCommitments();
+
+            long now = uvNetwork.currentTimeMillis();
             // should run around the same frequency of blocktime
             if (now-last_mempool_check >= 3L *uvNetwork.getConfig().blocktime_ms) {
                 checkTimechainTxConfirmations();
@@ -1184,7 +1666,8 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             }
             // to avoid spam and network congestion, gossid should spread less frequenctly
             if (now - last_gossip_flush >= uvNetwork.getConfig().gossip_flush_period_ms) {
-                processGossip();  // or flushGossip()
+                if (uvNetwork.getGossipLog()!=null) processGossipLog();
+                else processGossip();  // or flushGossip()
                 last_gossip_flush = now;
             }
         }
@@ -1193,6 +1676,52 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         }
     }
 
+    /**
+     * @return true if some channel or HTLC message is still waiting in the queues
+     */
+    boolean hasPendingMessages() {
+        return !channelsAcceptedQueue.isEmpty() || !channelsToAcceptQueue.isEmpty() ||
+                !updateAddHTLCQueue.isEmpty() || !updateFulFillHTLCQueue.isEmpty() || !updateFailHTLCQueue.isEmpty();
+    }
+
+    /**
+     * Time until the next timed duty of runServices() is due
+     * @return the delay in ms, or -1 if there is no pending tx confirmation or gossip to be flushed
+     */
+    synchronized long getNextServiceDelay() {
+        long now = uvNetwork.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+
+        if (!waitingTxConf.isEmpty())
+            next = Math.min(next, last_mempool_check + 3L * uvNetwork.getConfig().blocktime_ms - now);
+        if (!GossipMessageQueue.isEmpty() || hasUnreadGossipLog())
+            next = Math.min(next, last_gossip_flush + uvNetwork.getConfig().gossip_flush_period_ms - now);
+        for (var shards : heldShards.values())
+            next = Math.min(next, shards.deadline() - now);
+        long commitment = nextCommitmentAt();
+        if (commitment != Long.MAX_VALUE) next = Math.min(next, commitment - now);
+
+        return next == Long.MAX_VALUE ? -1 : Math.max(0, next);
+    }
+
+    /**
+     * Fail the shards of the payments that did not reach the invoice amount in time
+     */
+    private synchronized void expireHeldShards() {
+        if (heldShards.isEmpty()) return;
+        long now = uvNetwork.currentTimeMillis();
+        for (var it = heldShards.entrySet().iterator(); it.hasNext(); ) {
+            var entry = it.next();
+            if (now < entry.getValue().deadline()) continue;
+            it.remove();
+            log("Failing " + entry.getValue().htlcs().size() + " shards of incomplete payment " + entry.getKey());
+            for (var shard : entry.getValue().htlcs()) {
+                var fail_msg = new MsgUpdateFailHTLC(shard.getChannel_id(), shard.getId(), "mpp_timeout");
+                sendUpdate(shard.getChannel_id(), fail_msg);
+            }
+        }
+    }
+
     private synchronized void checkTimechainTxConfirmations() {
         int req_confirmations = uvNetwork.getConfig().minimum_depth;
 
@@ -1381,9 +1910,9 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         }
 
 
-        if (!pendingHTLC.values().isEmpty()) {
-            System.out.println("pendingHTLC.values()");
-            for(var value : pendingHTLC.values()) {
+        if (!pendingHTLC.isEmpty()) {
+            System.out.println("pendingHTLC:");
+            for(var value : pendingHTLC.entries()) {
                 System.out.println(value);
             }
         }
@@ -1413,6 +1942,8 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         queueSizeSum += updateFailHTLCQueue.size();
         queueSizeSum += pendingInvoices.size();
         queueSizeSum += pendingHTLC.size();
+        queueSizeSum += heldShards.size();
+        if (nextCommitmentAt() != Long.MAX_VALUE) queueSizeSum++;
         queueSizeSum += pendingAcceptedChannelPeers.size();
         queueSizeSum += waitingTxConf.size();
 
@@ -1428,6 +1959,8 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
                 && updateFailHTLCQueue.isEmpty()
                 && GossipMessageQueue.isEmpty()
                 && pendingHTLC.isEmpty()
+                && heldShards.isEmpty()
+                && nextCommitmentAt() == Long.MAX_VALUE
                 && pendingAcceptedChannelPeers.isEmpty()
                 && waitingTxConf.isEmpty();
     }
@@ -1486,7 +2019,8 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
     private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
         channels = new ConcurrentHashMap<>();
         saved_peers_id = new ArrayList<>();
-        failure_reason = new HashMap<>();
+        failure_reason = new ConcurrentHashMap<>();
+        failure_channel = new ConcurrentHashMap<>();
 
         s.defaultReadObject();
         int num_channels = s.readInt();
@@ -1499,8 +2033,7 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
             saved_peers_id.add((String)s.readObject());
         }
 
-        //noinspection unchecked
-        generatedInvoices = (ConcurrentHashMap<Long, LNInvoice>)s.readObject();
+        generatedInvoices = (InvoiceStore)s.readObject();
         //invoiceReports = (ArrayList<stats.GlobalStats.InvoiceReport>) s.readObject();
         nodeStats = (GlobalStats.NodeStats) s.readObject();
         payedInvoices = (HashMap<String, LNInvoice>) s.readObject();
@@ -1511,15 +2044,25 @@ public class UVNode implements LNode, Serializable,Comparable<UVNode> {
         this.updateFulFillHTLCQueue = new ConcurrentLinkedQueue<>();
         this.channelsAcceptedQueue = new ConcurrentLinkedQueue<>();
         this.pendingAcceptedChannelPeers = ConcurrentHashMap.newKeySet();
-        this.receivedHTLC = new HashMap<>();
-        this.pendingHTLC = new ConcurrentHashMap<>();
+        this.pendingHTLC = new HTLCTable();
+        this.heldShards = new HashMap<>();
+        this.htlcAttempts = new ConcurrentHashMap<>();
         this.sentChannelOpenings = new HashMap<>();
         this.updateFailHTLCQueue = new ConcurrentLinkedQueue<>();
         this.pendingInvoices = new ConcurrentHashMap<>();
         this.updateAddHTLCQueue = new ConcurrentLinkedQueue<>();
         this.channelsToAcceptQueue = new ConcurrentLinkedQueue<>();
         this.GossipMessageQueue = new ConcurrentLinkedQueue<>();
+        this.seenGossip = ConcurrentHashMap.newKeySet();
+        this.receivedGossip = new AtomicLong(0);
+        this.duplicateGossip = new AtomicLong(0);
+        this.coalescedGossip = new AtomicLong(0);
+        this.gossipLogCursor = 0;
+        this.gossipHorizon = Set.of();
+        this.gossipHorizonEpoch = -1;
         this.waitingTxConf = new HashMap<>();
+        this.serviceRequests = new AtomicInteger(0);
+        this.serviceWakeAt = new AtomicLong(0);
     }
 
 
@@ -0,0 +1,387 @@
+package protocol;
+
+import network.UVNetwork;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Global event calendar driving the simulation when time_mode=virtual.
+ * Instead of sleeping on the wall clock, a single driver thread pops events in (time, phase, seq) order and the virtual
+ * clock jumps straight to the next scheduled event.
+ * Threads running a workload (bootstrap, invoice processing...) are registered as actors: the clock is only advanced
+ * when every registered actor is parked on a virtual wait, so blocking code written for the wall-clock mode keeps its
+ * semantics, while idle periods cost no real time at all.
+ */
+public class UVEventCalendar implements Runnable {
+
+    // events scheduled at the same virtual time are executed in phase order
+    public enum Phase { BLOCK, DELIVERY, SERVICE, WAKE }
+
+    public interface BlockingAction {
+        void run() throws InterruptedException;
+    }
+
+    private record Event(long time, Phase phase, long seq, Runnable action) { }
+
+    private static final class Waiter {
+        private final boolean actor;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private boolean released = false;
+
+        private Waiter(boolean actor) {
+            this.actor = actor;
+        }
+    }
+
+    /**
+     * Handle of a periodic event, cancelled the same way as the ScheduledFuture of the wall-clock executor
+     */
+    public static final class PeriodicTask implements Future<Void> {
+        private volatile boolean cancelled = false;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled;
+        }
+
+        @Override
+        public Void get() {
+            return null;
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+
+    private final PriorityQueue<Event> calendar = new PriorityQueue<>(
+            Comparator.comparingLong(Event::time)
+                    .thenComparing(Event::phase)
+                    .thenComparingLong(Event::seq));
+
+    private final UVNetwork uvm;
+    private final ThreadLocal<int[]> actorDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    private volatile long now = 0;
+    private long seq = 0;
+    private long nextBlockTime = -1;
+    private long processedEvents = 0;
+
+    // registered actors, actors currently parked on a virtual wait, non-actor threads sleeping on virtual time
+    private int registered = 0;
+    // tasks submitted to an executor and not started yet, actors as soon as they start
+    private int submitted = 0;
+    private int parked = 0;
+    private int sleepers = 0;
+
+    private volatile boolean running = false;
+    private Thread driverThread;
+
+    public UVEventCalendar(UVNetwork uvm) {
+        this.uvm = uvm;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        driverThread = new Thread(this, "EventCalendar");
+        driverThread.setDaemon(true);
+        driverThread.start();
+    }
+
+    public void stop() {
+        Thread driver;
+        synchronized (this) {
+            running = false;
+            driver = driverThread;
+            driverThread = null;
+            notifyAll();
+        }
+        if (driver != null && driver != Thread.currentThread()) {
+            try {
+                driver.join(5000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public synchronized long getProcessedEvents() {
+        return processedEvents;
+    }
+
+    public synchronized int getPendingEvents() {
+        return calendar.size();
+    }
+
+    public synchronized void schedule(long delay, Phase phase, Runnable action) {
+        calendar.add(new Event(now + Math.max(0, delay), phase, seq++, action));
+        notifyAll();
+    }
+
+    /**
+     * Virtual-time equivalent of scheduleAtFixedRate: the action is repeated every period until cancelled or
+     * until keepRunning returns false
+     */
+    public PeriodicTask schedulePeriodic(long period, Phase phase, Runnable action, BooleanSupplier keepRunning) {
+        var task = new PeriodicTask();
+        schedule(0, phase, new Runnable() {
+            @Override
+            public void run() {
+                if (task.isCancelled() || !keepRunning.getAsBoolean()) return;
+                action.run();
+                schedule(Math.max(1, period), phase, this);
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Block generation is modeled as a self-rescheduling event, stopped when the timechain status is set to false
+     */
+    public synchronized void startBlocks(UVTimechain timechain) {
+        if (nextBlockTime >= 0) return;
+        final long blocktime = Math.max(1, timechain.getBlockToMillisecTimeDelay(1));
+        nextBlockTime = now + blocktime;
+        schedule(blocktime, Phase.BLOCK, new Runnable() {
+            @Override
+            public void run() {
+                if (!timechain.getStatus()) {
+                    synchronized (UVEventCalendar.this) {
+                        nextBlockTime = -1;
+                    }
+                    return;
+                }
+                synchronized (UVEventCalendar.this) {
+                    nextBlockTime = now + blocktime;
+                }
+                timechain.advanceBlock();
+                schedule(blocktime, Phase.BLOCK, this);
+            }
+        });
+    }
+
+    /* actors */
+
+    public synchronized void enter() {
+        actorDepth.get()[0]++;
+        if (actorDepth.get()[0] == 1) registered++;
+    }
+
+    /**
+     * A task is being submitted to another thread, that will run it as an actor: the clock does not advance until the
+     * task starts with enterSubmitted(), as it would only take the thread start-up time in the wall-clock mode
+     */
+    public synchronized void submitted() {
+        submitted++;
+    }
+
+    /**
+     * The submitted task starts on the current thread, as a registered actor
+     */
+    public synchronized void enterSubmitted() {
+        submitted--;
+        enter();
+    }
+
+    /**
+     * The submission was rejected, the task will never start
+     */
+    public synchronized void cancelSubmitted() {
+        submitted--;
+        notifyAll();
+    }
+
+    public synchronized void exit() {
+        var depth = actorDepth.get();
+        if (depth[0] == 0) return;
+        depth[0]--;
+        if (depth[0] == 0) {
+            registered--;
+            notifyAll();
+        }
+    }
+
+    private boolean isActor() {
+        return actorDepth.get()[0] > 0;
+    }
+
+    private boolean canAdvance() {
+        return submitted == 0 && registered == parked && (registered > 0 || sleepers > 0);
+    }
+
+    /* virtual waits */
+
+    public void sleep(long ms) throws InterruptedException {
+        sleepUntil(now + Math.max(0, ms));
+    }
+
+    public void sleepUntil(long time) throws InterruptedException {
+        Waiter waiter;
+        synchronized (this) {
+            waiter = new Waiter(isActor());
+            if (waiter.actor) parked++;
+            else sleepers++;
+            calendar.add(new Event(Math.max(time, now), Phase.WAKE, seq++, () -> release(waiter)));
+            notifyAll();
+        }
+        try {
+            waiter.latch.await();
+        } catch (InterruptedException e) {
+            release(waiter);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for the completion of a future, for at most timeout ms of virtual time
+     * @return the completion value, or timeoutValue if the future is not completed (normally) when the timeout expires
+     */
+    public <T> T await(CompletableFuture<T> future, long timeout, T timeoutValue) throws InterruptedException {
+        return await(future, true, timeout, timeoutValue);
+    }
+
+    /**
+     * Wait for the completion of a future without any timeout.
+     * Unlike parkWhile, the completing thread resumes the waiter before the clock can advance
+     */
+    public void await(CompletableFuture<?> future) throws InterruptedException {
+        await(future, false, 0, null);
+    }
+
+    private <T> T await(CompletableFuture<T> future, boolean timed, long timeout, T timeoutValue) throws InterruptedException {
+        Waiter waiter;
+        synchronized (this) {
+            waiter = new Waiter(isActor());
+            if (waiter.actor) parked++;
+            else sleepers++;
+            if (timed) calendar.add(new Event(now + Math.max(0, timeout), Phase.WAKE, seq++, () -> release(waiter)));
+            notifyAll();
+        }
+        // the completing thread releases the waiter before the clock can move on
+        future.whenComplete((v, t) -> release(waiter));
+        try {
+            waiter.latch.await();
+        } catch (InterruptedException e) {
+            release(waiter);
+            throw e;
+        }
+        return future.isDone() && !future.isCompletedExceptionally() ? future.getNow(timeoutValue) : timeoutValue;
+    }
+
+    /**
+     * Wait for the given number of blocks to be found, waking up right after the corresponding block event.
+     * Falls back to the timechain latches when blocks are not currently scheduled (e.g., stopped timechain)
+     */
+    public void awaitBlocks(UVTimechain timechain, int blocks) throws InterruptedException {
+        long target;
+        synchronized (this) {
+            target = nextBlockTime < 0 ? -1 : nextBlockTime + (long) (blocks - 1) * timechain.getBlockToMillisecTimeDelay(1);
+        }
+        if (target >= 0) {
+            sleepUntil(target);
+        } else {
+            var latch = timechain.getWaitBlocksLatch(blocks);
+            parkWhile(latch::await);
+        }
+    }
+
+    /**
+     * Run a blocking action that does not depend on virtual time (e.g., waiting for other actors), without
+     * preventing the clock from advancing in the meanwhile
+     */
+    public void parkWhile(BlockingAction action) throws InterruptedException {
+        boolean actor;
+        synchronized (this) {
+            actor = isActor();
+            if (actor) {
+                parked++;
+                notifyAll();
+            }
+        }
+        try {
+            action.run();
+        } finally {
+            if (actor) {
+                synchronized (this) {
+                    parked--;
+                }
+            }
+        }
+    }
+
+    private void release(Waiter waiter) {
+        synchronized (this) {
+            if (!waiter.released) {
+                waiter.released = true;
+                if (waiter.actor) parked--;
+                else sleepers--;
+                notifyAll();
+            }
+        }
+        waiter.latch.countDown();
+    }
+
+    /* driver */
+
+    @Override
+    public void run() {
+        uvm.log("Starting virtual time event calendar...");
+        while (true) {
+            Event next;
+            synchronized (this) {
+                next = null;
+                while (running && next == null) {
+                    var head = calendar.peek();
+                    if (head != null && head.time() <= now) {
+                        next = calendar.poll();
+                    } else if (head != null && canAdvance()) {
+                        now = head.time();
+                    } else {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            running = false;
+                        }
+                    }
+                }
+                if (!running) break;
+                processedEvents++;
+            }
+            try {
+                next.action().run();
+            } catch (Throwable t) {
+                uvm.logException("EventCalendar event at time " + next.time() + " (" + next.phase() + ")", t);
+            }
+        }
+        uvm.log("Exiting virtual time event calendar...");
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EventCalendar{" + "now=" + now + ", pending=" + calendar.size() + ", processed=" + processedEvents + ", actors=" + registered + ", submitted=" + submitted + ", parked=" + parked + '}';
+    }
+}
@@ -199,6 +199,11 @@ public class UVTimechain implements Runnable, Serializable {
         // not running --> running, must start the thread
         if (status && !getStatus()) {
             this.status = true;
+            // in virtual time mode blocks are events of the global calendar, no dedicated thread
+            if (uvm.getEventCalendar()!=null) {
+                uvm.getEventCalendar().startBlocks(this);
+                return;
+            }
             Thread timechainThread = new Thread(this, "Timechain");
             timechainThread.start();
         }
@@ -221,20 +226,28 @@ public class UVTimechain implements Runnable, Serializable {
         while (getStatus()) {
             try {
                 Thread.sleep(blocktime);
-                synchronized (wait_blocks_latch) {
-                    for (CountDownLatch t: wait_blocks_latch)  t.countDown();
-                    wait_blocks_latch.removeIf(t -> t.getCount() == 0);
-                }
             } catch (InterruptedException e) {
                 threadAlive = false;
                 throw new RuntimeException(e);
             }
-            tictocNextBlock();
+            advanceBlock();
         }
         threadAlive = false;
         log("Exiting timechain thread...");
     }
 
+    /**
+     * Release the threads waiting for blocks and mine the next block.
+     * Called by the timechain thread, or by the event calendar when running in virtual time
+     */
+    public void advanceBlock() {
+        synchronized (wait_blocks_latch) {
+            for (CountDownLatch t: wait_blocks_latch)  t.countDown();
+            wait_blocks_latch.removeIf(t -> t.getCount() == 0);
+        }
+        tictocNextBlock();
+    }
+
     @Override
     public String toString() {
         return "Timechain{" + "current_height=" + current_height + ", blocktime=" + blocktime + '}';
@@ -127,7 +127,8 @@ public class GlobalStats {
         DoubleStream nodeCapacityStream = uvNetwork.getUVNodeList().values().stream().mapToDouble(e -> e.getNodeCapacity());
         DoubleStream lightingBalanceStream = uvNetwork.getUVNodeList().values().stream().mapToDouble(e -> e.getLocalBalance());
         DoubleStream outboundFractionStream = uvNetwork.getUVNodeList().values().stream().mapToDouble(e -> e.getOverallOutboundFraction());
-        DoubleStream generatedInvoicesStream = uvNetwork.getUVNodeList().values().stream().mapToDouble(e -> e.getGeneratedInvoices().size());
+        DoubleStream generatedInvoicesStream = uvNetwork.getUVNodeList().values().stream().mapToDouble(e -> e.getGeneratedInvoiceCount());
+        DoubleStream gossipDuplicatesStream = uvNetwork.getUVNodeList().values().stream().mapToDouble(e -> 100*e.getGossipDuplicateRate());
 
         String s1 = generateStatsItem("Graph Nodes",graphNodeStream);
         String s2 = generateStatsItem("Graph Channels",graphChannelStream);
@@ -136,6 +137,7 @@ public class GlobalStats {
         String s5 = generateStatsItem("LN balance",lightingBalanceStream);
         String s6 = generateStatsItem("Invoices",generatedInvoicesStream);
         String s7 = generateStatsItem("Outbound %",outboundFractionStream);
+        String s8 = generateStatsItem("Gossip dups %",gossipDuplicatesStream);
         System.out.println("End generating stats.");
 
         String s = String.format("\n%-15s%-15s%-15s%-15s%-15s%-15s%-15s%-15s",
@@ -148,7 +150,7 @@ public class GlobalStats {
                 "median",
                 "3rd quartile"
         );
-        return s+s1+s2+s3+s4+s5+s6+s7;
+        return s+s1+s2+s3+s4+s5+s6+s7+s8;
     }
 
     public String generateInvoiceReport() {
@@ -165,6 +167,21 @@ public class GlobalStats {
             return s.toString();
     }
 
+    /**
+     * The commitment rounds of each channel, listed once even if shared by the two nodes
+     */
+    public String generateChannelReport() {
+
+        var s = new StringBuilder(UVChannel.generateCommitmentStatsHeader());
+        var reported = new HashSet<String>();
+        for (UVNode node: uvNetwork.getSortedNodeListByPubkey()) {
+            for (UVChannel channel: node.getChannels().values()) {
+                if (reported.add(channel.getChannelId())) s.append("\n").append(channel.generateCommitmentStatsCSV());
+            }
+        }
+        return s.toString();
+    }
+
     public static double calculateLambda(ArrayList<Double> V) {
         double sum = 0;
         for (Double value : V) {
@@ -286,11 +303,15 @@ public class GlobalStats {
                                     int search_returned_paths,
                                     int search_investigated_states,
                                     int search_expanded_edges,
+                                    int search_expanded_edges_saved,
+                                    int search_cache_hits,
+                                    int search_cache_misses,
                                     int search_excluded_capacity,
                                     int search_excluded_visited_state,
                                     int search_excluded_cycle,
                                     int search_excluded_max_hops,
                                     int search_excluded_cost,
+                                    int search_excluded_budget,
                                     int filtered_policy,
                                     int filtered_capacity,
                                     int filtered_local_liquidity,
@@ -301,7 +322,10 @@ public class GlobalStats {
                                     int attempt_failed_expiry_too_soon,
                                     int attempt_failed_local_liquidity,
                                     int attempt_failed_timeout,
+                                    int attempt_failed_mpp_timeout,
                                     int attempt_failed_unknown,
+                                    int attempt_skipped_mission_control,
+                                    int mpp_shards_settled,
                                     boolean success) implements Serializable {
 
             public static String generateInvoiceReportHeader() {
@@ -316,11 +340,15 @@ public class GlobalStats {
                         "search_returned_paths",
                         "search_investigated_states",
                         "search_expanded_edges",
+                        "search_expanded_edges_saved",
+                        "search_cache_hits",
+                        "search_cache_misses",
                         "search_excluded_capacity",
                         "search_excluded_visited_state",
                         "search_excluded_cycle",
                         "search_excluded_max_hops",
                         "search_excluded_cost",
+                        "search_excluded_budget",
                         "filtered_policy",
                         "filtered_capacity",
                         "filtered_local_liquidity",
@@ -331,7 +359,10 @@ public class GlobalStats {
                         "attempt_failed_expiry_too_soon",
                         "attempt_failed_local_liquidity",
                         "attempt_failed_timeout",
+                        "attempt_failed_mpp_timeout",
                         "attempt_failed_unknown",
+                        "attempt_skipped_mission_control",
+                        "mpp_shards_settled",
                         "success"
                 );
             }
@@ -349,11 +380,15 @@ public class GlobalStats {
                         Integer.toString(search_returned_paths),
                         Integer.toString(search_investigated_states),
                         Integer.toString(search_expanded_edges),
+                        Integer.toString(search_expanded_edges_saved),
+                        Integer.toString(search_cache_hits),
+                        Integer.toString(search_cache_misses),
                         Integer.toString(search_excluded_capacity),
                         Integer.toString(search_excluded_visited_state),
                         Integer.toString(search_excluded_cycle),
                         Integer.toString(search_excluded_max_hops),
                         Integer.toString(search_excluded_cost),
+                        Integer.toString(search_excluded_budget),
                         Integer.toString(filtered_policy),
                         Integer.toString(filtered_capacity),
                         Integer.toString(filtered_local_liquidity),
@@ -364,7 +399,10 @@ public class GlobalStats {
                         Integer.toString(attempt_failed_expiry_too_soon),
                         Integer.toString(attempt_failed_local_liquidity),
                         Integer.toString(attempt_failed_timeout),
+                        Integer.toString(attempt_failed_mpp_timeout),
                         Integer.toString(attempt_failed_unknown),
+                        Integer.toString(attempt_skipped_mission_control),
+                        Integer.toString(mpp_shards_settled),
                         Boolean.toString(success)
                 );
             }
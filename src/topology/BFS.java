@@ -1,8 +1,8 @@
 package topology;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 
 /* -------------------------------------------------------------------------
@@ -17,61 +17,79 @@ import java.util.List;
  *
  * Limitation:May miss the fee-cheapest route when weights differ; later,
  *            cheaper arrivals to an already-visited vertex are discarded.
+ *
+ * Bidirectional: layers are expanded from both the ends, and each edge
+ *            where the two searches meet gives a path, shortest first.
  * -------------------------------------------------------------------------*/
 
 public class BFS extends PathFinder {
     @Override
-    public SearchResult findPaths(ChannelGraph g, String start, String end, int topk) {
+    public SearchResult findPaths(GraphView g, String start, String end, int topk) {
+        if (bidirectional) return findPathsBidirectional(g, start, end, topk);
 
         int found = 0;
-        var visited_vertex = new ArrayList<String>();
-        var queue_vertex = new LinkedList<String>();
         List<Path> paths = new ArrayList<>();
         var stats = new SearchStatsCollector();
 
-        var last_parent = new HashMap<String, ChannelGraph.Edge>();
-        last_parent.put("ROOT",null);
+        int source = g.vertexId(start);
+        int target = g.vertexId(end);
+        if (source < 0) return buildSearchResult(paths, stats);
 
-        visited_vertex.add(start);
-        queue_vertex.add(start);
+        var visited_vertex = new boolean[g.vertexCount()];
+        var queue_vertex = new int[g.vertexCount()];
+        int head = 0, tail = 0;
 
-        while (!queue_vertex.isEmpty()) {
-            var current_vertex = queue_vertex.poll();
-            stats.investigatedStates++;
+        // edge used to reach each vertex, -1 for the start
+        var last_parent = new int[g.vertexCount()];
+        last_parent[source] = -1;
+        // hops from the start, only with the forward hop limit
+        var depth = forwardHopLimit ? new int[g.vertexCount()] : null;
 
-            var list_edges =g.getAdjMap().get(current_vertex);
-            if (list_edges == null) {
+        visited_vertex[source] = true;
+        queue_vertex[tail++] = source;
+
+        while (head < tail) {
+            if (overBudget(stats)) {
+                stats.excludedByBudget += tail - head;
+                break;
+            }
+            var current_vertex = queue_vertex[head++];
+            stats.investigatedStates++;
+            if (depth != null && depth[current_vertex] >= maxHops) {
+                stats.excludedByMaxHops++;
                 continue;
             }
 
-            for (ChannelGraph.Edge e :list_edges) {
+            for (int e = g.firstOut(current_vertex); e >= 0; e = g.nextOut(e)) {
                 stats.expandedEdges++;
-                if (!canTraverse(e)) {
+                if (!canTraverse(g, e)) {
                     stats.excludedByCapacity++;
                     continue;
                 }
-                if (e.destination().equals(end))  {
+                int destination = g.target(e);
+                if (destination == target)  {
                     List<ChannelGraph.Edge> edges = new ArrayList<>();
-                    edges.add(e);
+                    edges.add(g.edge(e));
 
-                    ChannelGraph.Edge current = last_parent.get(e.source());
-                    while (current!=null) {
-                        edges.add(current);
-                        current = last_parent.get(current.source());
+                    int current = last_parent[current_vertex];
+                    while (current >= 0) {
+                        edges.add(g.edge(current));
+                        current = last_parent[g.source(current)];
                     }
                     paths.add(new Path(edges));
                     found++;
                     if (found == topk) return buildSearchResult(paths, stats);
                     // no need to go deeper along that path
-                    visited_vertex.add(e.destination());
+                    visited_vertex[destination] = true;
                     continue;
                 }
-                if (!visited_vertex.contains(e.destination())) {
+                if (!visited_vertex[destination]) {
                     // check whether destination has been pruned, being empty
-                    if (g.getAdjMap().get(e.destination())!=null) {
-                        last_parent.put(e.destination(),e);
-                        visited_vertex.add(e.destination());
-                        queue_vertex.add(e.destination());
+                    if (g.isPresent(destination)) {
+                        last_parent[destination] = e;
+                        if (depth != null) depth[destination] = depth[current_vertex] + 1;
+                        visited_vertex[destination] = true;
+                        queue_vertex[tail++] = destination;
                     }
                 } else {
                     stats.excludedByVisitedState++;
@@ -81,6 +99,32 @@ public class BFS extends PathFinder {
         return buildSearchResult(paths, stats);
     }
 
+    private SearchResult findPathsBidirectional(GraphView g, String start, String end, int topk) {
+        List<Path> paths = new ArrayList<>();
+        var stats = new SearchStatsCollector();
+        int source = g.vertexId(start);
+        int target = g.vertexId(end);
+        if (source < 0 || target < 0 || source == target) return buildSearchResult(paths, stats);
+
+        int limit = topk > 0 ? topk : Integer.MAX_VALUE;
+        var search = new BidirectionalHops(g, this, stats, source, target, false);
+        var found = new HashSet<Path>();
+        int next = 0;
+        boolean expanding = true;
+        while (paths.size() < limit && expanding) {
+            expanding = search.expandLayer();
+            // the meetings of a layer can give paths of different lengths
+            List<Path> layer = new ArrayList<>();
+            for (; next < search.meetingCount(); next++) {
+                var path = search.firstPath(search.meeting(next));
+                if (path != null && found.add(path)) layer.add(path);
+            }
+            layer.sort(Comparator.comparingInt(Path::getSize));
+            for (int i = 0; i < layer.size() && paths.size() < limit; i++) paths.add(layer.get(i));
+        }
+        return buildSearchResult(paths, stats);
+    }
+
     @Override
     public double totalCost(Path p) {
         return p.edges().size();
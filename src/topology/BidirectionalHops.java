@@ -0,0 +1,217 @@
+package topology;
+
+import java.util.*;
+
+/**
+ * Hop-oriented search from both the ends, shared by the bidirectional modes of {@link BFS} and {@link ShortestHop}.
+ * The forward side follows the outgoing edges from the start, the backward side the incoming edges from the end;
+ * each step expands a whole layer of the side with the smaller frontier, while the two depths stay within the hop
+ * limit. The sides never enter each other's vertices: reaching one records the edge as a meeting instead.
+ * The parents of a vertex are the edges reaching it at its depth: the first one only, or all of them for
+ * all-shortest-paths searches.
+ */
+final class BidirectionalHops {
+
+    private final class Side {
+        final boolean forward;
+        final int[] depth;
+        // parents of v: linked list of the edges reaching it at its depth, towards the start or the end of the side
+        final int[] firstParent;
+        final int[] lastParent;
+        final int[] nextParent;
+        final int[] queue;
+        int head = 0, tail = 0;
+        int layerDepth = 0;
+
+        Side(boolean forward, int root) {
+            this.forward = forward;
+            depth = new int[g.vertexCount()];
+            Arrays.fill(depth, -1);
+            firstParent = new int[g.vertexCount()];
+            Arrays.fill(firstParent, -1);
+            lastParent = new int[g.vertexCount()];
+            nextParent = new int[g.edgeCount()];
+            queue = new int[g.vertexCount()];
+            depth[root] = 0;
+            queue[tail++] = root;
+        }
+
+        int frontier() {
+            return tail - head;
+        }
+    }
+
+    private final GraphView g;
+    private final PathFinder finder;
+    private final PathFinder.SearchStatsCollector stats;
+    private final int start;
+    private final int end;
+    private final boolean allParents;
+    private final Side forward;
+    private final Side backward;
+
+    // meeting edges, from a forward vertex to a backward vertex, in discovery order
+    private int[] meetings = new int[16];
+    private int meetingCount = 0;
+    private final BitSet met = new BitSet();
+
+    BidirectionalHops(GraphView g, PathFinder finder, PathFinder.SearchStatsCollector stats,
+                      int start, int end, boolean allParents) {
+        this.g = g;
+        this.finder = finder;
+        this.stats = stats;
+        this.start = start;
+        this.end = end;
+        this.allParents = allParents;
+        forward = new Side(true, start);
+        backward = new Side(false, end);
+    }
+
+    /**
+     * Expand a layer of one of the sides
+     * @return false when the search is over, the frontiers being exhausted, the hop limit reached or the budget of the
+     * path finder used up, possibly in the middle of the layer
+     */
+    boolean expandLayer() {
+        if (forward.frontier() == 0 || backward.frontier() == 0) return false;
+        if (forward.layerDepth + backward.layerDepth >= finder.maxHops) {
+            stats.excludedByMaxHops += forward.frontier() + backward.frontier();
+            return false;
+        }
+        var side = forward.frontier() <= backward.frontier() ? forward : backward;
+        var other = side == forward ? backward : forward;
+        int layerEnd = side.tail;
+        while (side.head < layerEnd) {
+            if (finder.overBudget(stats)) {
+                stats.excludedByBudget += forward.frontier() + backward.frontier();
+                return false;
+            }
+            int u = side.queue[side.head++];
+            stats.investigatedStates++;
+            for (int e = side.forward ? g.firstOut(u) : g.firstIn(u); e >= 0; e = side.forward ? g.nextOut(e) : g.nextIn(e)) {
+                stats.expandedEdges++;
+                if (!finder.canTraverse(g, e)) {
+                    stats.excludedByCapacity++;
+                    continue;
+                }
+                int v = side.forward ? g.target(e) : g.source(e);
+                if (other.depth[v] >= 0) {
+                    addMeeting(e);
+                    continue;
+                }
+                // pruned vertices are not entered, as in the forward searches
+                if (!g.isPresent(v)) continue;
+                if (side.depth[v] < 0) {
+                    side.depth[v] = side.layerDepth + 1;
+                    side.firstParent[v] = side.lastParent[v] = e;
+                    side.nextParent[e] = -1;
+                    side.queue[side.tail++] = v;
+                } else if (allParents && side.depth[v] == side.layerDepth + 1) {
+                    side.nextParent[side.lastParent[v]] = e;
+                    side.nextParent[e] = -1;
+                    side.lastParent[v] = e;
+                } else {
+                    stats.excludedByVisitedState++;
+                }
+            }
+        }
+        side.layerDepth++;
+        return true;
+    }
+
+    private void addMeeting(int e) {
+        if (met.get(e)) return;
+        met.set(e);
+        if (meetingCount == meetings.length) meetings = Arrays.copyOf(meetings, meetingCount * 2);
+        meetings[meetingCount++] = e;
+    }
+
+    /**
+     * @return the sum of the depths reached by the two sides: the paths not met yet are longer
+     */
+    int depth() {
+        return forward.layerDepth + backward.layerDepth;
+    }
+
+    int meetingCount() {
+        return meetingCount;
+    }
+
+    int meeting(int i) {
+        return meetings[i];
+    }
+
+    /**
+     * @return the number of edges of the paths through the meeting edge
+     */
+    int length(int meeting) {
+        return forward.depth[g.source(meeting)] + 1 + backward.depth[g.target(meeting)];
+    }
+
+    /**
+     * The path through the meeting edge following the first parents, or null if it is not simple
+     */
+    Path firstPath(int meeting) {
+        var edges = new int[length(meeting)];
+        int i = forward.depth[g.source(meeting)];
+        edges[i] = meeting;
+        for (int v = g.source(meeting), j = i - 1; v != start; v = g.source(forward.firstParent[v]), j--) {
+            edges[j] = forward.firstParent[v];
+        }
+        for (int v = g.target(meeting), j = i + 1; v != end; v = g.target(backward.firstParent[v]), j++) {
+            edges[j] = backward.firstParent[v];
+        }
+        return toPath(edges);
+    }
+
+    /**
+     * Add to out the simple paths through the meeting edge, combining all the parents of both the sides, up to limit
+     */
+    void allPaths(int meeting, List<Path> out, int limit) {
+        var edges = new int[length(meeting)];
+        int i = forward.depth[g.source(meeting)];
+        edges[i] = meeting;
+        prefixes(g.source(meeting), i, i, edges, out, limit);
+    }
+
+    // fill edges[0..j) walking back the forward parents of v, then the edges after the meeting at i
+    private void prefixes(int v, int j, int i, int[] edges, List<Path> out, int limit) {
+        if (v == start) {
+            suffixes(g.target(edges[i]), i + 1, edges, out, limit);
+            return;
+        }
+        for (int e = forward.firstParent[v]; e >= 0 && out.size() < limit; e = forward.nextParent[e]) {
+            edges[j - 1] = e;
+            prefixes(g.source(e), j - 1, i, edges, out, limit);
+        }
+    }
+
+    // fill edges[j..] walking the backward parents of v up to the end
+    private void suffixes(int v, int j, int[] edges, List<Path> out, int limit) {
+        if (v == end) {
+            var path = toPath(edges);
+            if (path != null) out.add(path);
+            return;
+        }
+        for (int e = backward.firstParent[v]; e >= 0 && out.size() < limit; e = backward.nextParent[e]) {
+            edges[j] = e;
+            suffixes(g.target(e), j + 1, edges, out, limit);
+        }
+    }
+
+    private Path toPath(int[] edges) {
+        var seen = new BitSet();
+        seen.set(start);
+        for (int e : edges) {
+            if (seen.get(g.target(e))) {
+                stats.excludedByCycle++;
+                return null;
+            }
+            seen.set(g.target(e));
+        }
+        // Path expects edges in reverse (end→start) order
+        var edgeList = new ArrayList<ChannelGraph.Edge>(edges.length);
+        for (int j = edges.length - 1; j >= 0; j--) edgeList.add(g.edge(edges[j]));
+        return new Path(edgeList);
+    }
+}
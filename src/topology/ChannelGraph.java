@@ -5,20 +5,56 @@ import message.*;
 
 import java.io.*;
 import java.util.*;
-
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The channel graph known by a node, stored as a delta over a base graph shared by all the nodes.
+ * Channels known exactly as in the base are not stored at all, while the node keeps its own copy of the channels
+ * missing from the base or known with different policies, and marks the base channels it has not learned.
+ * The base is empty until {@link #rebase(CsrGraph)}, so that the graph is entirely local during the bootstrap.
+ */
 public class ChannelGraph implements Serializable  {
 
     private final String root_node;
-    private final HashSet<String> channelSet = new HashSet<>();
     @Serial
-    private static final long serialVersionUID = 120676L;
-    // We use Hashmap to store the edges in the graph, indexed by node id as keys
-    //transient private Map<String, List<Edge>> adj_map = new ConcurrentHashMap<>();
-    transient private Map<String, Set<Edge>> adj_map = new HashMap<>();
-
-    public Map<String, Set<Edge>> getAdjMap() {
-        return adj_map;
-    }
+    private static final long serialVersionUID = 120678L;
+
+    transient private CsrGraph base = CsrGraph.EMPTY;
+    // base edges not in the graph, base vertices not in the graph, and base channels never announced to the node
+    transient private BitSet maskedEdges = new BitSet();
+    transient private BitSet hiddenVertices = new BitSet();
+    transient private BitSet unknownChannels = new BitSet();
+
+    // Vertices missing from the base are interned to ids following the base ones, never reused
+    transient private StringIntMap extraIds = new StringIntMap();
+    transient private String[] extraNames = new String[16];
+    transient private boolean[] extraPresent = new boolean[16];
+    transient private int extraCount = 0;
+
+    // Directed edges not in the base are stored as slots in parallel primitive arrays, the two directions of a
+    // channel in consecutive slots, while policies are patched in place
+    transient private String[] slotChannel = new String[32];
+    transient private int[] slotSource = new int[32];
+    transient private int[] slotTarget = new int[32];
+    transient private int[] slotCapacity = new int[32];
+    transient private boolean[] slotHasPolicy = new boolean[32];
+    transient private int[] slotBaseFee = new int[32];
+    transient private int[] slotFeePpm = new int[32];
+    transient private int[] slotCltv = new int[32];
+    transient private int slotCount = 0;
+
+    // known channels that are not in the base or differ from it: first slot of the channel, -1 if all edges purged
+    transient private StringIntMap localChannels = new StringIntMap();
+
+    // Changes are serialized on the graph monitor, and also hold the write lock of the StampedLock while bumping the
+    // version, so that the path finders can read immutable views without locking: the last published one while current,
+    // otherwise a new one built with an optimistic read. As nobody else takes the lock, writers never park on it
+    transient private StampedLock lock = new StampedLock();
+    transient private long version = 0;
+    transient private AtomicReference<OverlayGraph> published = new AtomicReference<>();
+    // A* landmark index shared by the views, built lazily by the searches using it
+    transient private AtomicReference<LandmarkIndex> landmarks = new AtomicReference<>();
 
     public record Edge(String id, String source, String destination, int capacity, LNChannel.Policy policy) implements Serializable {
         @Override
@@ -27,10 +63,190 @@ public class ChannelGraph implements Serializable  {
         }
     }
 
+    /**
+     * @return the int-indexed view of the current graph, to be used for searches.
+     * The view is immutable: searches can keep using it while the gossip changes the graph, and getting it takes the
+     * graph monitor only when a change interferes with its building
+     */
+    public GraphView view() {
+        long stamp = lock.tryOptimisticRead();
+        long current = version;
+        var last = published.get();
+        if (last != null && last.version() == current && lock.validate(stamp)) return last;
+
+        OverlayGraph built = null;
+        if (stamp != 0) {
+            try {
+                built = buildView();
+            } catch (RuntimeException e) {
+                // torn read of arrays being changed, the stamp is not valid anymore
+            }
+            if (!lock.validate(stamp)) built = null;
+        }
+        if (built == null) {
+            synchronized (this) {
+                built = buildView();
+            }
+        }
+        return published.accumulateAndGet(built, (prev, next) -> prev == null || prev.version() < next.version() ? next : prev);
+    }
+
+    /**
+     * @return the modification epoch of the graph, changing with any change of its channels, policies or base
+     */
+    public long getEpoch() {
+        long stamp = lock.tryOptimisticRead();
+        long current = version;
+        if (lock.validate(stamp)) return current;
+        synchronized (this) {
+            return version;
+        }
+    }
+
+    private OverlayGraph buildView() {
+        return new OverlayGraph(version, landmarks, base, maskedEdges, hiddenVertices, extraIds, extraNames, extraPresent, extraCount,
+                slotChannel, slotSource, slotTarget, slotCapacity, slotHasPolicy, slotBaseFee, slotFeePpm, slotCltv, slotCount);
+    }
+
+    /**
+     * A copy of the graph as adjacency map, e.g. for displaying purposes.
+     * Notice: searches should use the much more compact {@link #view()}
+     */
+    public Map<String, Set<Edge>> getAdjMap() {
+        var g = view();
+        Map<String, Set<Edge>> adj_map = new HashMap<>();
+        for (int v = 0; v < g.vertexCount(); v++) {
+            if (!g.isPresent(v)) continue;
+            var edges = new HashSet<Edge>();
+            for (int e = g.firstOut(v); e >= 0; e = g.nextOut(e)) edges.add(g.edge(e));
+            adj_map.put(g.vertexName(v), edges);
+        }
+        return adj_map;
+    }
+
+    private int vertexId(String node_id) {
+        int id = base.vertexId(node_id);
+        return id >= 0 ? id : extraIds.get(node_id);
+    }
+
+    private int internNode(String node_id) {
+        int id = vertexId(node_id);
+        if (id >= 0) return id;
+        if (extraCount == extraNames.length) {
+            extraNames = Arrays.copyOf(extraNames, extraCount * 2);
+            extraPresent = Arrays.copyOf(extraPresent, extraCount * 2);
+        }
+        extraNames[extraCount] = node_id;
+        id = base.vertexCount() + extraCount++;
+        extraIds.put(node_id, id);
+        return id;
+    }
+
+    private void setPresent(int v, boolean present) {
+        if (v < base.vertexCount()) hiddenVertices.set(v, !present);
+        else extraPresent[v - base.vertexCount()] = present;
+    }
+
+    private boolean isPresent(int v) {
+        return v < base.vertexCount() ? !hiddenVertices.get(v) : extraPresent[v - base.vertexCount()];
+    }
 
     // This function adds a new vertex to the graph
-    private synchronized void addNode(String node_id) {
-        adj_map.putIfAbsent(node_id, new HashSet<>());
+    private int addNode(String node_id) {
+        int id = internNode(node_id);
+        setPresent(id, true);
+        version++;
+        return id;
+    }
+
+    private void addSlot(String channel_id, int source, int target, int capacity, LNChannel.Policy policy) {
+        if (slotCount == slotSource.length) {
+            int size = slotCount * 2;
+            slotChannel = Arrays.copyOf(slotChannel, size);
+            slotSource = Arrays.copyOf(slotSource, size);
+            slotTarget = Arrays.copyOf(slotTarget, size);
+            slotCapacity = Arrays.copyOf(slotCapacity, size);
+            slotHasPolicy = Arrays.copyOf(slotHasPolicy, size);
+            slotBaseFee = Arrays.copyOf(slotBaseFee, size);
+            slotFeePpm = Arrays.copyOf(slotFeePpm, size);
+            slotCltv = Arrays.copyOf(slotCltv, size);
+        }
+        int slot = slotCount++;
+        slotChannel[slot] = channel_id;
+        slotSource[slot] = source;
+        slotTarget[slot] = target;
+        slotCapacity[slot] = capacity;
+        setSlotPolicy(slot, policy);
+    }
+
+    /**
+     * Add a slot with the values of an edge of another graph
+     */
+    private void copySlot(GraphView g, int e, int source, int target) {
+        addSlot(g.channelId(e), source, target, g.capacity(e), null);
+        setSlotPolicy(slotCount - 1, g.hasPolicy(e), g.baseFee(e), g.feePpm(e), g.cltvDelta(e));
+    }
+
+    private void setSlotPolicy(int slot, LNChannel.Policy policy) {
+        if (policy == null) setSlotPolicy(slot, false, 0, 0, 0);
+        else setSlotPolicy(slot, true, policy.getBaseFee(), policy.getFeePpm(), policy.getCLTVDelta());
+    }
+
+    private void setSlotPolicy(int slot, boolean has_policy, int base_fee, int fee_ppm, int cltv_delta) {
+        slotHasPolicy[slot] = has_policy;
+        slotBaseFee[slot] = base_fee;
+        slotFeePpm[slot] = fee_ppm;
+        slotCltv[slot] = cltv_delta;
+        version++;
+    }
+
+    private static boolean samePolicy(GraphView g, int e, LNChannel.Policy policy) {
+        if (policy == null) return !g.hasPolicy(e);
+        return g.hasPolicy(e) && g.baseFee(e) == policy.getBaseFee() && g.feePpm(e) == policy.getFeePpm()
+                && g.cltvDelta(e) == policy.getCLTVDelta();
+    }
+
+    private static boolean sameEdge(GraphView g1, int e1, GraphView g2, int e2) {
+        return g1.vertexName(g1.target(e1)).equals(g2.vertexName(g2.target(e2)))
+                && g1.capacity(e1) == g2.capacity(e2) && g1.hasPolicy(e1) == g2.hasPolicy(e2)
+                && g1.baseFee(e1) == g2.baseFee(e2) && g1.feePpm(e1) == g2.feePpm(e2) && g1.cltvDelta(e1) == g2.cltvDelta(e2);
+    }
+
+    private boolean sameAsBase(int e, int capacity, LNChannel.Policy policy) {
+        return e >= 0 && base.capacity(e) == capacity && samePolicy(base, e, policy);
+    }
+
+    private void maskBaseChannel(int c) {
+        for (int dir = 0; dir < 2; dir++) {
+            int e = base.channelEdge(c, dir);
+            if (e >= 0) maskedEdges.set(e);
+        }
+    }
+
+    /**
+     * Add both directions of a newly known channel, as a reference to the base when identical to it
+     */
+    private void addChannel(String channel_id, String node1pub, String node2pub, int capacity,
+                            LNChannel.Policy policy1, LNChannel.Policy policy2) {
+        int node1 = addNode(node1pub);
+        int node2 = addNode(node2pub);
+
+        int c = base.channelIndex(channel_id);
+        if (c >= 0) {
+            unknownChannels.clear(c);
+            int e1 = base.findEdge(channel_id, node1);
+            int e2 = base.findEdge(channel_id, node2);
+            if (sameAsBase(e1, capacity, policy1) && sameAsBase(e2, capacity, policy2)) {
+                maskedEdges.clear(e1);
+                maskedEdges.clear(e2);
+                version++;
+                return;
+            }
+            maskBaseChannel(c);
+        }
+        localChannels.put(channel_id, slotCount);
+        addSlot(channel_id,node1,node2,capacity,policy1);
+        addSlot(channel_id,node2,node1,capacity,policy2);
     }
 
     /**
@@ -43,38 +259,106 @@ public class ChannelGraph implements Serializable  {
         var node1pub = channel.getNode1PubKey();
         var node2pub = channel.getNode2PubKey();
 
-        if (this.hasChannel(id)) {
-            System.out.println(" WARNING: skipping addChannel on "+root_node+ ", existing edge for channel "+channel.getChannelId());
-            return;
-            //System.exit(-1);
-        }
+        long stamp = lock.writeLock();
+        try {
+            if (knowsChannel(id)) {
+                System.out.println(" WARNING: skipping addChannel on "+root_node+ ", existing edge for channel "+channel.getChannelId());
+                return;
+                //System.exit(-1);
+            }
 
-        adj_map.putIfAbsent(node1pub, new HashSet<>());
-        adj_map.putIfAbsent(node2pub, new HashSet<>());
+            addChannel(id,node1pub,node2pub,channel.getCapacity(),channel.getPolicy(node1pub),channel.getPolicy(node2pub));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
 
-        var edge1 = new Edge(id,node1pub,node2pub,channel.getCapacity(),channel.getPolicy(node1pub));
-        var edge2 = new Edge(id,node2pub,node1pub,channel.getCapacity(),channel.getPolicy(node2pub));
+    public synchronized void addAnnouncedChannel(GossipMsgChannelAnnouncement msg) {
 
-        adj_map.get(node1pub).add(edge1);
-        adj_map.get(node2pub).add(edge2);
+        var channel_id = msg.getChannelId();
+        long stamp = lock.writeLock();
+        try {
+            if (knowsChannel(channel_id)) {
+                System.out.println(" FATAL: calling addAnnouncedChannel with existing edge for msg: "+msg);
+                System.exit(-1);
+            }
+            addChannel(channel_id,msg.getNodeId1(),msg.getNodeId2(),msg.getFunding(),null,null);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
 
-        channelSet.add(id);
+    /**
+     * Move the graph onto a new shared base, keeping as own data only what differs from it
+     * @param newBase the graph shared by all the nodes, e.g. the actual network topology
+     */
+    public synchronized void rebase(CsrGraph newBase) {
+        long stamp = lock.writeLock();
+        try {
+            rebaseLocked(newBase);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
-    public synchronized void addAnnouncedChannel(GossipMsgChannelAnnouncement msg) {
+    private void rebaseLocked(CsrGraph newBase) {
+        var old = buildView();
 
-        var channel_id = msg.getChannelId();
-        if (this.hasChannel(channel_id)) {
-            System.out.println(" FATAL: calling addAnnouncedChannel with existing edge for msg: "+msg);
-            System.exit(-1);
+        // known channels, with their edges still in the graph
+        var known = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < localChannels.capacity(); i++) {
+            if (localChannels.keyAt(i) != null) known.put(localChannels.keyAt(i), new ArrayList<>(2));
+        }
+        for (int c = 0; c < base.channelCount(); c++) {
+            if (!unknownChannels.get(c)) known.put(base.channelId(base.channelEdge(c, 0)), new ArrayList<>(2));
+        }
+        for (int v = 0; v < old.vertexCount(); v++) {
+            for (int e = old.firstOut(v); e >= 0; e = old.nextOut(e)) known.get(old.channelId(e)).add(e);
+        }
+
+        base = newBase;
+        maskedEdges = new BitSet();
+        hiddenVertices = new BitSet();
+        unknownChannels = new BitSet();
+        extraIds = new StringIntMap();
+        extraNames = new String[16];
+        extraPresent = new boolean[16];
+        extraCount = 0;
+        slotCount = 0;
+        localChannels = new StringIntMap();
+
+        for (int c = 0; c < base.channelCount(); c++) {
+            var channel_id = base.channelId(base.channelEdge(c, 0));
+            var edges = known.remove(channel_id);
+            if (edges == null) {
+                unknownChannels.set(c);
+                maskBaseChannel(c);
+                continue;
+            }
+            boolean same = edges.size() == 2;
+            for (int e : edges) {
+                int base_edge = base.findEdge(channel_id, base.vertexId(old.vertexName(old.source(e))));
+                same &= base_edge >= 0 && sameEdge(base, base_edge, old, e);
+            }
+            if (!same) {
+                maskBaseChannel(c);
+                copyEdges(old, channel_id, edges);
+            }
+        }
+        known.forEach((channel_id, edges) -> copyEdges(old, channel_id, edges));
+
+        hiddenVertices.set(0, base.vertexCount());
+        for (int v = 0; v < old.vertexCount(); v++) {
+            if (old.isPresent(v)) setPresent(internNode(old.vertexName(v)), true);
+        }
+        version++;
+    }
+
+    private void copyEdges(GraphView old, String channel_id, List<Integer> edges) {
+        localChannels.put(channel_id, edges.isEmpty() ? -1 : slotCount);
+        for (int e : edges) {
+            copySlot(old, e, internNode(old.vertexName(old.source(e))), internNode(old.vertexName(old.target(e))));
         }
-        channelSet.add(channel_id);
-        var node1 = msg.getNodeId1();
-        var node2 = msg.getNodeId2();
-        adj_map.putIfAbsent(node1, new HashSet<>());
-        adj_map.putIfAbsent(node2, new HashSet<>());
-        adj_map.get(node1).add(new Edge(channel_id,node1,node2,msg.getFunding(),null));
-        adj_map.get(node2).add(new Edge(channel_id,node2,node1,msg.getFunding(),null));
     }
 
     /**
@@ -82,7 +366,11 @@ public class ChannelGraph implements Serializable  {
      * @return
      */
     private synchronized int getVertexCount() {
-        return adj_map.keySet().size();
+        int count = base.vertexCount() - hiddenVertices.cardinality();
+        for (int v = 0; v < extraCount; v++) {
+            if (extraPresent[v]) count++;
+        }
+        return count;
     }
 
     /**
@@ -91,41 +379,104 @@ public class ChannelGraph implements Serializable  {
      * @return
      */
     private synchronized int getEdgesCount(boolean bidirection) {
-        int count = 0;
-        for (String v : adj_map.keySet()) {
-            count += adj_map.get(v).size();
-        }
+        int count = base.edgeCount() - maskedEdges.cardinality() + slotCount;
         if (bidirection) {
             count = count / 2;
         }
         return count;
     }
 
+    /**
+     * @return the number of directed edges stored by the node itself, rather than referenced from the shared base
+     */
+    public synchronized int getOwnEdgeCount() {
+        return slotCount;
+    }
+
     @Serial
     private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
-        adj_map = new HashMap<>();
-        int n_keys;
         s.defaultReadObject();
-        n_keys = s.readInt();
+        lock = new StampedLock();
+        published = new AtomicReference<>();
+        landmarks = new AtomicReference<>();
+
+        // the base is written once per stream, and shared again by all the graphs
+        base = (CsrGraph) s.readObject();
+        maskedEdges = (BitSet) s.readObject();
+        hiddenVertices = (BitSet) s.readObject();
+        unknownChannels = (BitSet) s.readObject();
+
+        extraCount = s.readInt();
+        extraIds = new StringIntMap(extraCount);
+        extraNames = new String[Math.max(16, extraCount)];
+        extraPresent = new boolean[extraNames.length];
+        for (int v = 0; v < extraCount; v++) {
+            extraNames[v] = (String) s.readObject();
+            extraPresent[v] = s.readBoolean();
+            extraIds.put(extraNames[v], base.vertexCount() + v);
+        }
 
-        for (int i=0;i<n_keys;i++) {
-            var pubkey = (String) s.readObject();
-            @SuppressWarnings("unchecked") var list = (HashSet<Edge>)s.readObject();
-            adj_map.put(pubkey,list);
+        int slots = s.readInt();
+        int size = Math.max(32, slots);
+        slotChannel = new String[size];
+        slotSource = new int[size];
+        slotTarget = new int[size];
+        slotCapacity = new int[size];
+        slotHasPolicy = new boolean[size];
+        slotBaseFee = new int[size];
+        slotFeePpm = new int[size];
+        slotCltv = new int[size];
+        slotCount = 0;
+        for (int i = 0; i < slots; i++) {
+            var channel_id = (String) s.readObject();
+            int source = s.readInt();
+            int target = s.readInt();
+            int capacity = s.readInt();
+            LNChannel.Policy policy = s.readBoolean() ? new LNChannel.Policy(s.readInt(), s.readInt(), s.readInt()) : null;
+            addSlot(channel_id, source, target, capacity, policy);
         }
 
+        int channels = s.readInt();
+        localChannels = new StringIntMap(channels);
+        for (int i = 0; i < channels; i++) {
+            localChannels.put((String) s.readObject(), s.readInt());
+        }
     }
 
     @Serial
-    private void writeObject(ObjectOutputStream s) {
+    private synchronized void writeObject(ObjectOutputStream s) {
         try {
             s.defaultWriteObject();
-            int n_keys = adj_map.keySet().size();
-            s.writeInt(n_keys);
+            s.writeObject(base);
+            s.writeObject(maskedEdges);
+            s.writeObject(hiddenVertices);
+            s.writeObject(unknownChannels);
+
+            s.writeInt(extraCount);
+            for (int v = 0; v < extraCount; v++) {
+                s.writeObject(extraNames[v]);
+                s.writeBoolean(extraPresent[v]);
+            }
+
+            s.writeInt(slotCount);
+            for (int i = 0; i < slotCount; i++) {
+                s.writeObject(slotChannel[i]);
+                s.writeInt(slotSource[i]);
+                s.writeInt(slotTarget[i]);
+                s.writeInt(slotCapacity[i]);
+                s.writeBoolean(slotHasPolicy[i]);
+                if (slotHasPolicy[i]) {
+                    s.writeInt(slotCltv[i]);
+                    s.writeInt(slotBaseFee[i]);
+                    s.writeInt(slotFeePpm[i]);
+                }
+            }
 
-            for (String k : adj_map.keySet()) {
-                s.writeObject(k);
-                s.writeObject(adj_map.get(k));
+            s.writeInt(localChannels.size());
+            for (int i = 0; i < localChannels.capacity(); i++) {
+                if (localChannels.keyAt(i) == null) continue;
+                s.writeObject(localChannels.keyAt(i));
+                s.writeInt(localChannels.valueAt(i));
             }
 
         } catch (IOException e) {
@@ -135,21 +486,50 @@ public class ChannelGraph implements Serializable  {
 
 
     public synchronized void updateChannel(String updater, LNChannel.Policy new_policy, String channel_id) {
-        var edges = adj_map.get(updater);
-        for (Edge e:edges) {
-            if (e.id().equals(channel_id)) {
-                var new_edge = new Edge(channel_id,e.source,e.destination,e.capacity,new_policy);
-                if (!edges.remove(e)) {
-                    throw new IllegalStateException("FATAL:Cannot remove "+e+" for matching channel id"+channel_id);
+        long stamp = lock.writeLock();
+        try {
+            patchPolicy(updater, new_policy, channel_id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void patchPolicy(String updater, LNChannel.Policy new_policy, String channel_id) {
+        int source = vertexId(updater);
+        if (source >= 0) {
+            int first = localChannels.get(channel_id);
+            if (first >= 0) {
+                for (int slot = first; slot < slotCount && slotChannel[slot].equals(channel_id); slot++) {
+                    if (slotSource[slot] == source) {
+                        setSlotPolicy(slot, new_policy);
+                        return;
+                    }
+                }
+            }
+            // the base edge is known as is: copy the channel, with the new policy
+            int e = base.findEdge(channel_id, source);
+            if (e >= 0 && !maskedEdges.get(e)) {
+                int c = base.channelIndex(channel_id);
+                // a direction already masked (purged without a policy) must not come back as a local slot
+                var copied = new int[2];
+                for (int dir = 0; dir < 2; dir++) {
+                    int base_edge = base.channelEdge(c, dir);
+                    copied[dir] = base_edge >= 0 && !maskedEdges.get(base_edge) ? base_edge : -1;
+                }
+                maskBaseChannel(c);
+                localChannels.put(channel_id, slotCount);
+                for (int base_edge : copied) {
+                    if (base_edge < 0) continue;
+                    copySlot(base, base_edge, base.source(base_edge), base.target(base_edge));
+                    if (base_edge == e) setSlotPolicy(slotCount - 1, new_policy);
                 }
-                edges.add(new_edge);
                 return;
             }
         }
         throw new IllegalStateException("Cannot updateChannel "+channel_id+" in "+root_node+" updater:"+updater+" policy:"+new_policy);
     }
 
-    public synchronized void updateChannel(GossipMsgChannelUpdate msgChannelUpdate) {
+    public void updateChannel(GossipMsgChannelUpdate msgChannelUpdate) {
         var updater = msgChannelUpdate.getSignerId();
         var new_policy = msgChannelUpdate.getUpdatedPolicy();
         var channel_id = msgChannelUpdate.getChannelId();
@@ -158,7 +538,13 @@ public class ChannelGraph implements Serializable  {
     }
 
     public synchronized boolean hasChannel(String channelId) {
-        return channelSet.contains(channelId);
+        return knowsChannel(channelId);
+    }
+
+    private boolean knowsChannel(String channelId) {
+        if (localChannels.containsKey(channelId)) return true;
+        int c = base.channelIndex(channelId);
+        return c >= 0 && !unknownChannels.get(c);
     }
 
     public ChannelGraph(String root_node){
@@ -166,28 +552,63 @@ public class ChannelGraph implements Serializable  {
         addNode(root_node);
     }
 
-    public int purgeNullPolicyChannels() {
-        Iterator<String> nodeIterator = adj_map.keySet().iterator();
+    /**
+     * Removes the directed edges without a policy, and the vertices left without outgoing edges
+     * @return the number of removed vertices
+     */
+    public synchronized int purgeNullPolicyChannels() {
+        long stamp = lock.writeLock();
+        try {
+            return purgeLocked();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int purgeLocked() {
+        var hasOut = new boolean[base.vertexCount() + extraCount];
+        for (int e = maskedEdges.nextClearBit(0); e < base.edgeCount(); e = maskedEdges.nextClearBit(e + 1)) {
+            if (base.hasPolicy(e)) hasOut[base.source(e)] = true;
+            else maskedEdges.set(e);
+        }
+
+        int kept = 0;
+        localChannels.setAll(-1);
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (!slotHasPolicy[slot]) continue;
+            slotChannel[kept] = slotChannel[slot];
+            slotSource[kept] = slotSource[slot];
+            slotTarget[kept] = slotTarget[slot];
+            slotCapacity[kept] = slotCapacity[slot];
+            slotHasPolicy[kept] = true;
+            slotBaseFee[kept] = slotBaseFee[slot];
+            slotFeePpm[kept] = slotFeePpm[slot];
+            slotCltv[kept] = slotCltv[slot];
+            if (localChannels.get(slotChannel[kept]) < 0) localChannels.put(slotChannel[kept], kept);
+            hasOut[slotSource[kept]] = true;
+            kept++;
+        }
+        Arrays.fill(slotChannel, kept, slotCount, null);
+        slotCount = kept;
+
         int purged = 0;
-        while (nodeIterator.hasNext()) {
-            var node = nodeIterator.next();
-            Collection<Edge> edges = adj_map.get(node);
-            edges.removeIf(edge -> edge.policy == null);
+        for (int v = 0; v < hasOut.length; v++) {
             // Removing node if no edges remain
-            if (edges.isEmpty()) {
+            if (isPresent(v) && !hasOut[v]) {
+                setPresent(v, false);
                 purged++;
-                nodeIterator.remove();
             }
         }
+        version++;
         return purged;
     }
 
-    public synchronized int countNullPolicies() {
+    public int countNullPolicies() {
+        var g = view();
         int empty = 0;
-        for (var node: adj_map.keySet()) {
-            var edges = adj_map.get(node);
-            for (var e: edges) {
-                if (e.policy == null) empty++;
+        for (int v = 0; v < g.vertexCount(); v++) {
+            for (int e = g.firstOut(v); e >= 0; e = g.nextOut(e)) {
+                if (!g.hasPolicy(e)) empty++;
             }
         }
         return empty;
@@ -205,6 +626,7 @@ public class ChannelGraph implements Serializable  {
     public String toString()
     {
         StringBuilder builder = new StringBuilder();
+        var adj_map = getAdjMap();
         ArrayList<String> list = new ArrayList<>();
 
         adj_map.keySet().stream().sorted().forEach(list::add);
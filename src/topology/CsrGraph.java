@@ -0,0 +1,298 @@
+package topology;
+
+import network.LNChannel;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable compressed-sparse-row graph, shared by all the nodes as the base of their {@link ChannelGraph}.
+ * Vertices are int ids, and the directed edges of each vertex are stored contiguously, in parallel primitive
+ * arrays for capacity and policy values, so that a search never touches Strings or boxed objects.
+ */
+public final class CsrGraph implements GraphView, Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 120678L;
+
+    static final CsrGraph EMPTY = new CsrGraph(new StringIntMap(), new String[0], new boolean[0], 0,
+            new String[0], new int[0], new int[0], new int[0], new boolean[0], new int[0], new int[0], new int[0], 0);
+
+    private final StringIntMap vertexIds;
+    private final String[] vertexNames;
+    // vertices that are part of the graph (i.e. not pruned), even when without outgoing edges
+    private final boolean[] present;
+
+    // outgoing edges of vertex v are in [rowOffset[v], rowOffset[v+1])
+    private final int[] rowOffset;
+    private final int[] source;
+    private final int[] target;
+    private final int[] capacity;
+    private final boolean[] hasPolicy;
+    private final int[] baseFee;
+    private final int[] feePpm;
+    private final int[] cltvDelta;
+    private final String[] channelId;
+
+    // incoming edges of vertex v are inEdge[inOffset[v]], ..., inEdge[inOffset[v+1]-1], and e is at inPosition[e]
+    private final int[] inOffset;
+    private final int[] inEdge;
+    private final int[] inPosition;
+
+    // the (up to) two directed edges of each channel, -1 if missing
+    private final StringIntMap channelIds;
+    private final int[] channelEdges;
+
+    /**
+     * Build the CSR from edge slots, that can be in any order
+     */
+    CsrGraph(StringIntMap vertexIds, String[] vertexNames, boolean[] present, int vertexCount,
+             String[] slotChannel, int[] slotSource, int[] slotTarget, int[] slotCapacity,
+             boolean[] slotHasPolicy, int[] slotBaseFee, int[] slotFeePpm, int[] slotCltv, int slotCount) {
+
+        this.vertexIds = vertexIds;
+        this.vertexNames = Arrays.copyOf(vertexNames, vertexCount);
+        this.present = Arrays.copyOf(present, vertexCount);
+
+        rowOffset = new int[vertexCount + 1];
+        for (int s = 0; s < slotCount; s++) rowOffset[slotSource[s] + 1]++;
+        for (int v = 0; v < vertexCount; v++) rowOffset[v + 1] += rowOffset[v];
+
+        source = new int[slotCount];
+        target = new int[slotCount];
+        capacity = new int[slotCount];
+        hasPolicy = new boolean[slotCount];
+        baseFee = new int[slotCount];
+        feePpm = new int[slotCount];
+        cltvDelta = new int[slotCount];
+        channelId = new String[slotCount];
+
+        // stable counting sort by source vertex
+        int[] next = Arrays.copyOf(rowOffset, vertexCount);
+        for (int s = 0; s < slotCount; s++) {
+            int e = next[slotSource[s]]++;
+            source[e] = slotSource[s];
+            target[e] = slotTarget[s];
+            capacity[e] = slotCapacity[s];
+            hasPolicy[e] = slotHasPolicy[s];
+            baseFee[e] = slotBaseFee[s];
+            feePpm[e] = slotFeePpm[s];
+            cltvDelta[e] = slotCltv[s];
+            channelId[e] = slotChannel[s];
+        }
+
+        inOffset = new int[vertexCount + 1];
+        inEdge = new int[slotCount];
+        inPosition = new int[slotCount];
+        for (int e = 0; e < slotCount; e++) inOffset[target[e] + 1]++;
+        for (int v = 0; v < vertexCount; v++) inOffset[v + 1] += inOffset[v];
+        int[] nextIn = Arrays.copyOf(inOffset, vertexCount);
+        for (int e = 0; e < slotCount; e++) {
+            int p = nextIn[target[e]]++;
+            inEdge[p] = e;
+            inPosition[e] = p;
+        }
+
+        channelIds = new StringIntMap(slotCount / 2);
+        var edges = new int[2 * slotCount];
+        Arrays.fill(edges, -1);
+        for (int e = 0; e < slotCount; e++) {
+            int c = channelIds.get(channelId[e]);
+            if (c < 0) channelIds.put(channelId[e], c = channelIds.size());
+            edges[edges[2 * c] < 0 ? 2 * c : 2 * c + 1] = e;
+        }
+        channelEdges = Arrays.copyOf(edges, 2 * channelIds.size());
+    }
+
+    /**
+     * Build the graph of the given channels, with their current policies
+     */
+    public static CsrGraph of(Collection<? extends LNChannel> channels) {
+        int n = channels.size() * 2;
+        var ids = new StringIntMap(n);
+        var names = new String[n];
+        var slotChannel = new String[n];
+        var slotSource = new int[n];
+        var slotTarget = new int[n];
+        var slotCapacity = new int[n];
+        var slotHasPolicy = new boolean[n];
+        var slotBaseFee = new int[n];
+        var slotFeePpm = new int[n];
+        var slotCltv = new int[n];
+
+        int slot = 0;
+        for (LNChannel ch : channels) {
+            int node1 = vertexOf(ids, names, ch.getNode1PubKey());
+            int node2 = vertexOf(ids, names, ch.getNode2PubKey());
+            for (int dir = 0; dir < 2; dir++, slot++) {
+                var from = dir == 0 ? node1 : node2;
+                var policy = ch.getPolicy(names[from]);
+                slotChannel[slot] = ch.getChannelId();
+                slotSource[slot] = from;
+                slotTarget[slot] = dir == 0 ? node2 : node1;
+                slotCapacity[slot] = ch.getCapacity();
+                slotHasPolicy[slot] = policy != null;
+                slotBaseFee[slot] = policy != null ? policy.getBaseFee() : 0;
+                slotFeePpm[slot] = policy != null ? policy.getFeePpm() : 0;
+                slotCltv[slot] = policy != null ? policy.getCLTVDelta() : 0;
+            }
+        }
+        var present = new boolean[ids.size()];
+        Arrays.fill(present, true);
+        return new CsrGraph(ids, names, present, ids.size(),
+                slotChannel, slotSource, slotTarget, slotCapacity, slotHasPolicy, slotBaseFee, slotFeePpm, slotCltv, slot);
+    }
+
+    private static int vertexOf(StringIntMap ids, String[] names, String pubkey) {
+        int v = ids.get(pubkey);
+        if (v < 0) {
+            ids.put(pubkey, v = ids.size());
+            names[v] = pubkey;
+        }
+        return v;
+    }
+
+    @Override
+    public int vertexCount() {
+        return vertexNames.length;
+    }
+
+    @Override
+    public int vertexId(String pubkey) {
+        return vertexIds.get(pubkey);
+    }
+
+    @Override
+    public String vertexName(int v) {
+        return vertexNames[v];
+    }
+
+    @Override
+    public boolean isPresent(int v) {
+        return present[v];
+    }
+
+    @Override
+    public int edgeCount() {
+        return target.length;
+    }
+
+    int rowStart(int v) {
+        return rowOffset[v];
+    }
+
+    int rowEnd(int v) {
+        return rowOffset[v + 1];
+    }
+
+    @Override
+    public int firstOut(int v) {
+        return rowOffset[v] < rowOffset[v + 1] ? rowOffset[v] : -1;
+    }
+
+    @Override
+    public int nextOut(int e) {
+        return e + 1 < rowOffset[source[e] + 1] ? e + 1 : -1;
+    }
+
+    int inRowStart(int v) {
+        return inOffset[v];
+    }
+
+    int inRowEnd(int v) {
+        return inOffset[v + 1];
+    }
+
+    int inEdgeAt(int p) {
+        return inEdge[p];
+    }
+
+    int inPosition(int e) {
+        return inPosition[e];
+    }
+
+    @Override
+    public int firstIn(int v) {
+        return inOffset[v] < inOffset[v + 1] ? inEdge[inOffset[v]] : -1;
+    }
+
+    @Override
+    public int nextIn(int e) {
+        int p = inPosition[e] + 1;
+        return p < inOffset[target[e] + 1] ? inEdge[p] : -1;
+    }
+
+    @Override
+    public int source(int e) {
+        return source[e];
+    }
+
+    @Override
+    public int target(int e) {
+        return target[e];
+    }
+
+    @Override
+    public int capacity(int e) {
+        return capacity[e];
+    }
+
+    @Override
+    public boolean hasPolicy(int e) {
+        return hasPolicy[e];
+    }
+
+    @Override
+    public int baseFee(int e) {
+        return baseFee[e];
+    }
+
+    @Override
+    public int feePpm(int e) {
+        return feePpm[e];
+    }
+
+    @Override
+    public int cltvDelta(int e) {
+        return cltvDelta[e];
+    }
+
+    @Override
+    public String channelId(int e) {
+        return channelId[e];
+    }
+
+    int channelCount() {
+        return channelIds.size();
+    }
+
+    /**
+     * @return the index of the channel, or -1 if not in the graph
+     */
+    int channelIndex(String channel_id) {
+        return channelIds.get(channel_id);
+    }
+
+    /**
+     * @param dir 0 or 1
+     * @return one of the directed edges of the channel, or -1 if missing
+     */
+    int channelEdge(int c, int dir) {
+        return channelEdges[2 * c + dir];
+    }
+
+    /**
+     * @return the directed edge of the channel leaving the source vertex, or -1 if not in the graph
+     */
+    int findEdge(String channel_id, int source_vertex) {
+        int c = channelIndex(channel_id);
+        if (c < 0) return -1;
+        for (int dir = 0; dir < 2; dir++) {
+            int e = channelEdges[2 * c + dir];
+            if (e >= 0 && source[e] == source_vertex) return e;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,77 @@
+package topology;
+
+import network.LNChannel;
+
+/**
+ * Read-only, int-indexed view of a channel graph, as traversed by the path finders.
+ * Vertices and directed edges are int ids, edges of a vertex are visited with a cursor:
+ * {@code for (int e = g.firstOut(v); e >= 0; e = g.nextOut(e))}, and likewise the incoming edges with
+ * {@link #firstIn(int)} and {@link #nextIn(int)}, e.g. for searches moving backwards from the destination.
+ * Ids are valid only within the view: arrays sized with {@link #vertexCount()} and {@link #edgeCount()} can be used
+ * to hold per-vertex or per-edge search data.
+ */
+public interface GraphView {
+
+    /**
+     * @return upper bound of the vertex ids
+     */
+    int vertexCount();
+
+    /**
+     * @return the int id of the vertex, or -1 if never seen. Notice: pruned vertices keep their id, see {@link #isPresent(int)}
+     */
+    int vertexId(String pubkey);
+
+    String vertexName(int v);
+
+    boolean isPresent(int v);
+
+    /**
+     * @return upper bound of the edge ids
+     */
+    int edgeCount();
+
+    /**
+     * @return the first outgoing edge of v, or -1 if none
+     */
+    int firstOut(int v);
+
+    /**
+     * @return the outgoing edge following e from the same source, or -1 if none
+     */
+    int nextOut(int e);
+
+    /**
+     * @return the first incoming edge of v, or -1 if none
+     */
+    int firstIn(int v);
+
+    /**
+     * @return the incoming edge following e to the same target, or -1 if none
+     */
+    int nextIn(int e);
+
+    int source(int e);
+
+    int target(int e);
+
+    int capacity(int e);
+
+    boolean hasPolicy(int e);
+
+    int baseFee(int e);
+
+    int feePpm(int e);
+
+    int cltvDelta(int e);
+
+    String channelId(int e);
+
+    /**
+     * Materialize an edge, e.g. to build the {@link Path} of a search result
+     */
+    default ChannelGraph.Edge edge(int e) {
+        var policy = hasPolicy(e) ? new LNChannel.Policy(cltvDelta(e), baseFee(e), feePpm(e)) : null;
+        return new ChannelGraph.Edge(channelId(e), vertexName(source(e)), vertexName(target(e)), capacity(e), policy);
+    }
+}
@@ -3,6 +3,7 @@ package topology;
 import network.LNChannel;
 
 import java.util.List;
+import java.util.function.IntToDoubleFunction;
 
 public class LNDPathFinder extends MiniDijkstra{
     public static final double DEFAULT_RISK_FACTOR = 15e-9;
@@ -15,6 +16,14 @@ public class LNDPathFinder extends MiniDijkstra{
     private final double baseAttemptCostMsat;
     private final double attemptCostPpm;
     private double pathProbability = DEFAULT_PATH_PROBABILITY;
+    // the landmark index holds the forwarding costs of this amount, lower bounds for the larger payments, and scaled
+    // down for the smaller ones
+    private final int referenceAmountSat;
+    private int landmarkCount = 0;
+    private long landmarkRebuildChanges = 0;
+    // the channel failures of the sender, penalizing the path probability
+    private MissionControl missionControl;
+    private int blockHeight;
 
     public LNDPathFinder() {
         this(
@@ -39,23 +48,56 @@ public class LNDPathFinder extends MiniDijkstra{
         this.attemptCostPpm = attemptCostPpm;
         this.pathProbability = defaultPathProbability > 0.0 ? defaultPathProbability : DEFAULT_PATH_PROBABILITY;
         paymentAmountSat = Math.max(defaultPaymentAmountSat, 0);
+        referenceAmountSat = paymentAmountSat;
+    }
+
+    /**
+     * Search with A*, estimating the cost to the destination with the distances to and from the hubs of the graph
+     * @param count the number of landmark hubs, 0 for a uniform-cost search
+     * @param rebuildChanges the graph changes tolerated before rebuilding the index: meanwhile, the estimates can
+     *                       exceed the actual costs of the paths through the changed channels
+     */
+    public void setLandmarks(int count, long rebuildChanges) {
+        landmarkCount = Math.max(count, 0);
+        landmarkRebuildChanges = Math.max(rebuildChanges, 0);
+    }
+
+    /**
+     * Scale the path probability by the probabilities of its channels, as learned by the sender
+     * @param blockHeight the current block, the failures penalty decaying with the blocks elapsed since
+     */
+    public void setMissionControl(MissionControl missionControl, int blockHeight) {
+        this.missionControl = missionControl;
+        this.blockHeight = blockHeight;
     }
 
     @Override
-    public double weight(ChannelGraph.Edge edge, Path path) {
+    protected IntToDoubleFunction heuristic(GraphView g, int target) {
+        // the landmark index is kept by the node graph, shared by its views
+        if (landmarkCount == 0 || target < 0 || !(g instanceof OverlayGraph view)) return null;
+        var index = view.landmarks(landmarkCount, referenceAmountSat, landmarkRebuildChanges, e -> forwardingCost(view, e, referenceAmountSat));
+        // forwarding costs are a base plus a part proportional to the amount
+        double scale = referenceAmountSat == 0 ? 1.0 : Math.min(1.0, (double) paymentAmountSat / referenceAmountSat);
+        return v -> scale * index.lowerBound(v, target);
+    }
+
+    @Override
+    public double weight(GraphView g, int e, int hops) {
         // MiniDijkstra already accumulates cost across expansions.
         // Return only the incremental cost of this newly added edge.
-        var p = edge.policy();
-        if (p == null) {
+        if (!g.hasPolicy(e)) {
             return Double.POSITIVE_INFINITY;
         }
         double incrementalCost = 0.0;
-        if (path.getSize() > 1) {
-            incrementalCost += routingFees(p) + timelockOpportunityCost(p);
+        if (hops > 1) {
+            incrementalCost += routingFees(g.baseFee(e), g.feePpm(e)) + timelockOpportunityCost(g.cltvDelta(e));
         }
-        if (path.getSize() == 1) {
+        if (hops == 1) {
             incrementalCost += probabilisticPenalty();
         }
+        if (missionControl != null) {
+            incrementalCost += missionControlPenalty(g.channelId(e), g.vertexName(g.source(e)));
+        }
         return incrementalCost;
     }
 
@@ -81,11 +123,16 @@ public class LNDPathFinder extends MiniDijkstra{
         }
 
         double probabilisticPenalty = probabilisticPenalty();
-        double total = routingFees + timelockCost + probabilisticPenalty;
+        double missionControlPenalty = 0.0;
+        if (missionControl != null) {
+            for (ChannelGraph.Edge edge : path.edges()) missionControlPenalty += missionControlPenalty(edge.id(), edge.source());
+        }
+        double total = routingFees + timelockCost + probabilisticPenalty + missionControlPenalty;
         return new PathDetails(path, total, List.of(
                 new CostComponent("routing_fees", routingFees),
                 new CostComponent("timelock_opportunity_cost", timelockCost),
-                new CostComponent("probabilistic_penalty", probabilisticPenalty)
+                new CostComponent("probabilistic_penalty", probabilisticPenalty),
+                new CostComponent("mission_control_penalty", missionControlPenalty)
         ));
     }
 
@@ -95,12 +142,33 @@ public class LNDPathFinder extends MiniDijkstra{
     }
 
     private double routingFees(LNChannel.Policy policy) {
-        return policy.getBaseFee() / 1000.0
-                + (paymentAmountSat * policy.getFeePpm()) / 1_000_000.0;
+        return routingFees(policy.getBaseFee(), policy.getFeePpm());
+    }
+
+    private double routingFees(int baseFeeMsat, int feePpm) {
+        return routingFees(baseFeeMsat, feePpm, paymentAmountSat);
+    }
+
+    private static double routingFees(int baseFeeMsat, int feePpm, int amountSat) {
+        return baseFeeMsat / 1000.0
+                + (amountSat * feePpm) / 1_000_000.0;
+    }
+
+    private double forwardingCost(GraphView g, int e, int amountSat) {
+        if (!g.hasPolicy(e)) return Double.POSITIVE_INFINITY;
+        return routingFees(g.baseFee(e), g.feePpm(e), amountSat) + timelockOpportunityCost(g.cltvDelta(e), amountSat);
     }
 
     private double timelockOpportunityCost(LNChannel.Policy policy) {
-        return paymentAmountSat * policy.getCLTVDelta() * riskFactor;
+        return timelockOpportunityCost(policy.getCLTVDelta());
+    }
+
+    private double timelockOpportunityCost(int cltvDelta) {
+        return timelockOpportunityCost(cltvDelta, paymentAmountSat);
+    }
+
+    private double timelockOpportunityCost(int cltvDelta, int amountSat) {
+        return amountSat * cltvDelta * riskFactor;
     }
 
     private double probabilisticPenalty() {
@@ -108,4 +176,15 @@ public class LNDPathFinder extends MiniDijkstra{
                 + (paymentAmountSat * attemptCostPpm) / 1_000_000.0;
         return attemptPenaltySat / pathProbability;
     }
+
+    /**
+     * The attempt penalty grows as 1 / (pathProbability * product of the channel probabilities): to keep the costs
+     * additive, each channel adds the first order term -ln(probability), infinite for the channels that just failed
+     */
+    private double missionControlPenalty(String channelId, String source) {
+        double probability = missionControl.probability(channelId, source, paymentAmountSat, blockHeight);
+        if (probability >= 1.0) return 0.0;
+        if (probability <= 0.0) return Double.POSITIVE_INFINITY;
+        return -Math.log(probability) * probabilisticPenalty();
+    }
 }
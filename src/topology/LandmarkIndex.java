@@ -0,0 +1,176 @@
+package topology;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Distances from and to a few landmark vertices of a node graph, giving A* lower bounds of the cost between two
+ * vertices by the triangle inequality (ALT): d(v,t) >= d(L,t) - d(L,v) and d(v,t) >= d(v,L) - d(t,L).
+ * The bounds hold for any search whose edge costs are at least the weights the index was built with.
+ * The landmarks are the hubs with the most edges, and the index is immutable: vertex ids stay valid for the views
+ * of the same base, the vertices added since the build just get no bound.
+ */
+final class LandmarkIndex {
+
+    private final long version;
+    private final CsrGraph base;
+    private final int referenceAmountSat;
+    private final int vertexCount;
+    private final int[] landmarks;
+    // distances from and to each landmark, landmark after landmark: fromLandmark[l * vertexCount + v]
+    private final double[] fromLandmark;
+    private final double[] toLandmark;
+
+    private LandmarkIndex(long version, CsrGraph base, int referenceAmountSat, int vertexCount, int[] landmarks,
+                          double[] fromLandmark, double[] toLandmark) {
+        this.version = version;
+        this.base = base;
+        this.referenceAmountSat = referenceAmountSat;
+        this.vertexCount = vertexCount;
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+    }
+
+    /**
+     * @param version the version of the node graph g is a view of
+     * @param weight the weight of each edge, infinite for the edges not to be traversed
+     */
+    static LandmarkIndex build(GraphView g, long version, CsrGraph base, int count, int referenceAmountSat,
+                               IntToDoubleFunction weight) {
+        int n = g.vertexCount();
+        var landmarks = pickHubs(g, Math.min(count, n));
+        var fromLandmark = new double[landmarks.length * n];
+        var toLandmark = new double[landmarks.length * n];
+        var search = new Search(n);
+        for (int l = 0; l < landmarks.length; l++) {
+            search.distances(g, landmarks[l], true, weight, fromLandmark, l * n);
+            search.distances(g, landmarks[l], false, weight, toLandmark, l * n);
+        }
+        return new LandmarkIndex(version, base, referenceAmountSat, n, landmarks, fromLandmark, toLandmark);
+    }
+
+    /**
+     * @return true if the index can serve the searches on a view of the graph at the given version and base, being
+     * built for the same landmarks and no more than maxChanges graph changes before
+     */
+    boolean isUsable(long version, CsrGraph base, int count, int referenceAmountSat, long maxChanges) {
+        return this.base == base && this.referenceAmountSat == referenceAmountSat
+                && landmarks.length == Math.min(count, vertexCount) && version - this.version <= maxChanges;
+    }
+
+    long version() {
+        return version;
+    }
+
+    /**
+     * @return a lower bound of the cost from v to t, 0 if unknown
+     */
+    double lowerBound(int v, int t) {
+        if (v >= vertexCount || t >= vertexCount) return 0.0;
+        double bound = 0.0;
+        for (int i = 0; i < landmarks.length; i++) {
+            int offset = i * vertexCount;
+            // unreachable landmarks give no bound
+            double viaFrom = fromLandmark[offset + t] - fromLandmark[offset + v];
+            if (Double.isFinite(viaFrom) && viaFrom > bound) bound = viaFrom;
+            double viaTo = toLandmark[offset + v] - toLandmark[offset + t];
+            if (Double.isFinite(viaTo) && viaTo > bound) bound = viaTo;
+        }
+        return bound;
+    }
+
+    private static int[] pickHubs(GraphView g, int count) {
+        int n = g.vertexCount();
+        var degree = new int[n];
+        for (int v = 0; v < n; v++) {
+            if (!g.isPresent(v)) continue;
+            for (int e = g.firstOut(v); e >= 0; e = g.nextOut(e)) {
+                degree[v]++;
+                degree[g.target(e)]++;
+            }
+        }
+        // vertices by decreasing degree, then by id
+        return IntStream.range(0, n)
+                .filter(v -> g.isPresent(v) && degree[v] > 0)
+                .boxed()
+                .sorted((v1, v2) -> degree[v1] != degree[v2] ? Integer.compare(degree[v2], degree[v1]) : Integer.compare(v1, v2))
+                .limit(count)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Dijkstra from a landmark over all the vertices, along the outgoing or the incoming edges
+     */
+    private static final class Search {
+        private final boolean[] settled;
+        // binary min-heap of (vertex, distance) entries, stale entries skipped when popped
+        private int[] heapVertex = new int[64];
+        private double[] heapDistance = new double[64];
+        private int heapSize;
+
+        Search(int vertexCount) {
+            settled = new boolean[vertexCount];
+        }
+
+        void distances(GraphView g, int landmark, boolean outgoing, IntToDoubleFunction weight,
+                       double[] distance, int offset) {
+            Arrays.fill(distance, offset, offset + settled.length, Double.POSITIVE_INFINITY);
+            Arrays.fill(settled, false);
+            heapSize = 0;
+            distance[offset + landmark] = 0.0;
+            push(landmark, 0.0);
+
+            while (heapSize > 0) {
+                double d = heapDistance[0];
+                int u = pop();
+                if (settled[u]) continue;
+                settled[u] = true;
+                for (int e = outgoing ? g.firstOut(u) : g.firstIn(u); e >= 0; e = outgoing ? g.nextOut(e) : g.nextIn(e)) {
+                    int v = outgoing ? g.target(e) : g.source(e);
+                    double dv = d + weight.applyAsDouble(e);
+                    if (!settled[v] && dv < distance[offset + v]) {
+                        distance[offset + v] = dv;
+                        push(v, dv);
+                    }
+                }
+            }
+        }
+
+        private void push(int v, double d) {
+            if (heapSize == heapVertex.length) {
+                heapVertex = Arrays.copyOf(heapVertex, heapSize * 2);
+                heapDistance = Arrays.copyOf(heapDistance, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int up = (i - 1) >>> 1;
+                if (heapDistance[up] <= d) break;
+                heapVertex[i] = heapVertex[up];
+                heapDistance[i] = heapDistance[up];
+                i = up;
+            }
+            heapVertex[i] = v;
+            heapDistance[i] = d;
+        }
+
+        private int pop() {
+            int top = heapVertex[0];
+            int lastVertex = heapVertex[--heapSize];
+            double lastKey = heapDistance[heapSize];
+            int i = 0;
+            for (int child = 1; child < heapSize; child = 2 * i + 1) {
+                if (child + 1 < heapSize && heapDistance[child + 1] < heapDistance[child]) child++;
+                if (heapDistance[child] >= lastKey) break;
+                heapVertex[i] = heapVertex[child];
+                heapDistance[i] = heapDistance[child];
+                i = child;
+            }
+            heapVertex[i] = lastVertex;
+            heapDistance[i] = lastKey;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package topology;
+
+import java.util.*;
+
+/**
+ * Min-cost flow payment solver (Pickhardt and Richter, "Optimally Reliable & Cheap Payment Flows on the Lightning
+ * Network"): the payment amount is sent as a flow across many paths, minimizing the uncertainty cost
+ * {@code -ln P(x)}, with the success probability {@code P(x) = (c + 1 - x) / (c + 1)} of a channel of capacity c
+ * forwarding x under a uniform prior of its liquidity, plus the fees weighted by the fee weight.
+ * The convex cost of each channel direction is linearized over pieces of its capacity, and the flow is built by
+ * successive shortest paths on the residual graph, found by a hop-bounded Bellman-Ford since the residual edges of
+ * the flow sent have negative costs. Base fees do not fit a linear cost, so only the proportional fees are counted.
+ * The liquidity of the channels of the sender is known to it: they carry up to it with no uncertainty cost.
+ * The other channels are bounded by the amounts in flight on them and by the liquidity bounds learned from failures,
+ * the bound taking the place of the capacity in the probability, so that the amount left by the failed parts of a
+ * payment can be solved again.
+ * The flow is decomposed into the paths returned, each with the amount it carries, the largest first. If the budget
+ * or the iterations run out, or no residual path is left within max hops, the paths carry only part of the amount.
+ */
+public class MinCostFlow extends PathFinder {
+    public static final int DEFAULT_PIECES = 4;
+    public static final double DEFAULT_FEE_WEIGHT = 0.01;
+    public static final int DEFAULT_MAX_ITERATIONS = 32;
+
+    private final int pieces;
+    // cost of a satoshi of fees, in the units of -ln P
+    private final double feeWeight;
+    private final int maxIterations;
+    // outbound liquidity of the channels of the start, by channel id
+    private Map<String, Integer> localLiquidity = Map.of();
+    // amounts already in flight, by channel id
+    private Map<String, Integer> inFlight = Map.of();
+    // the liquidity below which each channel direction failed
+    private final Map<String, Integer> liquidityBounds = new HashMap<>();
+
+    /**
+     * A path of the flow and the amount it carries
+     */
+    public record PathFlow(Path path, int amountSat) {}
+
+    public record FlowResult(List<PathFlow> flows, SearchStats stats) {
+        public FlowResult {
+            flows = List.copyOf(flows);
+        }
+
+        public int amountSat() {
+            return flows.stream().mapToInt(PathFlow::amountSat).sum();
+        }
+    }
+
+    public MinCostFlow() {
+        this(MiniDijkstra.DEFAULT_MAX_HOPS, DEFAULT_PIECES, DEFAULT_FEE_WEIGHT, DEFAULT_MAX_ITERATIONS);
+    }
+
+    /**
+     * @param pieces linear pieces of the cost of each channel direction
+     * @param maxIterations augmenting paths searched at most
+     */
+    public MinCostFlow(int maxHops, int pieces, double feeWeight, int maxIterations) {
+        this.maxHops = Math.max(0, maxHops);
+        this.pieces = Math.max(pieces, 1);
+        this.feeWeight = Math.max(feeWeight, 0.0);
+        this.maxIterations = Math.max(maxIterations, 1);
+    }
+
+    /**
+     * @param liquidity the outbound liquidity of the channels of the start of the searches, by channel id
+     */
+    public void setLocalLiquidity(Map<String, Integer> liquidity) {
+        this.localLiquidity = Map.copyOf(liquidity);
+    }
+
+    /**
+     * @param amounts the amounts of the parts of the payment in flight, by channel id
+     */
+    public void setInFlight(Map<String, Integer> amounts) {
+        this.inFlight = Map.copyOf(amounts);
+    }
+
+    /**
+     * The channel direction could not forward the amount: the next flows are bounded below it
+     */
+    public void boundLiquidity(String channelId, String source, int amountSat) {
+        liquidityBounds.merge(channelId + ":" + source, Math.max(amountSat - 1, 0), Math::min);
+    }
+
+    @Override
+    public void setBidirectional(boolean bidirectional) {
+        // the residual graph changes at each augmenting path, so its searches run forward only
+    }
+
+    /**
+     * The paths of the flow of the payment amount, up to topk, each described with the amount it carries
+     */
+    @Override
+    public SearchResult findPaths(GraphView g, String start, String end, int topk) {
+        var result = findFlow(g, start, end);
+        int limit = topk > 0 ? topk : Integer.MAX_VALUE;
+        var details = new ArrayList<PathDetails>();
+        for (var flow : result.flows()) {
+            if (details.size() == limit) break;
+            details.add(describePath(flow.path(), flow.amountSat()));
+        }
+        var stats = result.stats();
+        return new SearchResult(details, new SearchStats(stats.investigatedStates(), stats.expandedEdges(),
+                stats.excludedByCapacity(), stats.excludedByVisitedState(), stats.excludedByCycle(),
+                stats.excludedByMaxHops(), stats.excludedByCost(), stats.excludedByBudget(), details.size()));
+    }
+
+    /**
+     * @return the flow of the payment amount (1 sat if not set) from start to end, as paths with amounts
+     */
+    public FlowResult findFlow(GraphView g, String start, String end) {
+        var stats = new SearchStatsCollector();
+        List<PathFlow> flows = new ArrayList<>();
+        int source = g.vertexId(start);
+        int target = g.vertexId(end);
+        if (source < 0 || target < 0 || source == target) return new FlowResult(flows, stats.snapshot(0));
+
+        var residual = new Residual(g, stats, source);
+        int left = Math.max(paymentAmountSat, 1);
+        for (int iteration = 0; left > 0; iteration++) {
+            if (iteration == maxIterations || overBudget(stats)) {
+                // the amount left unsent
+                stats.excludedByBudget++;
+                break;
+            }
+            int sent = residual.augment(target, left);
+            if (sent == 0) break;
+            left -= sent;
+        }
+        residual.decompose(target, flows);
+        flows.sort(Comparator.comparingInt(PathFlow::amountSat).reversed());
+        return new FlowResult(flows, stats.snapshot(flows.size()));
+    }
+
+    @Override
+    public double totalCost(Path p) {
+        return uncertaintyCost(p, paymentAmountSat) + feeWeight * proportionalFees(p, paymentAmountSat);
+    }
+
+    @Override
+    public PathDetails describePath(Path path) {
+        return describePath(path, paymentAmountSat);
+    }
+
+    private PathDetails describePath(Path path, int amountSat) {
+        double uncertainty = uncertaintyCost(path, amountSat);
+        double fees = feeWeight * proportionalFees(path, amountSat);
+        return new PathDetails(path, uncertainty + fees, List.of(
+                new CostComponent("flow_amount_sat", amountSat),
+                new CostComponent("uncertainty_cost", uncertainty),
+                new CostComponent("fee_cost", fees)
+        ), amountSat);
+    }
+
+    private static double uncertaintyCost(Path path, int amountSat) {
+        double cost = 0.0;
+        for (var edge : path.edges()) cost += uncertainty(edge.capacity(), amountSat);
+        return cost;
+    }
+
+    private static double proportionalFees(Path path, int amountSat) {
+        double fees = 0.0;
+        for (var edge : path.forwardingEdges()) {
+            if (edge.policy() != null) fees += (double) edge.policy().getFeePpm() * amountSat / 1_000_000;
+        }
+        return fees;
+    }
+
+    private static double uncertainty(int capacity, long amountSat) {
+        if (amountSat > capacity) return Double.POSITIVE_INFINITY;
+        return -Math.log((capacity + 1.0 - amountSat) / (capacity + 1.0));
+    }
+
+    /**
+     * The flow on each edge of the view and the residual graph it leaves: an edge with flow f < capacity can carry
+     * more at the cost of the piece f falls into, and one with f > 0 can give back flow at the cost of the piece
+     * below f. As the cost is convex, those are the only pieces of an edge worth using
+     */
+    private final class Residual {
+        private final GraphView g;
+        private final SearchStatsCollector stats;
+        private final int source;
+        private final int[] flow;
+        private final int hops;
+
+        // per layer distances and arcs, 2e to go along e and 2e+1 against it, -1 for the distance of the layer below
+        private final double[][] dist;
+        private final int[][] parentArc;
+        private int[] active;
+        private int[] nextActive;
+        private final int[] activeStamp;
+        private int stamp;
+
+        Residual(GraphView g, SearchStatsCollector stats, int source) {
+            this.g = g;
+            this.stats = stats;
+            this.source = source;
+            int n = g.vertexCount();
+            flow = new int[g.edgeCount()];
+            hops = Math.min(maxHops, Math.max(n - 1, 1));
+            dist = new double[hops + 1][n];
+            parentArc = new int[hops + 1][n];
+            active = new int[n];
+            nextActive = new int[n];
+            activeStamp = new int[n];
+        }
+
+        // the liquidity of a local channel, the capacity of the others within their bounds, less the amounts in flight
+        private int capacity(int e) {
+            if (g.source(e) == source) {
+                var liquidity = localLiquidity.get(g.channelId(e));
+                if (liquidity != null) return Math.min(liquidity, g.capacity(e));
+            }
+            if (liquidityBounds.isEmpty() && inFlight.isEmpty()) return g.capacity(e);
+            int capacity = g.capacity(e);
+            var bound = liquidityBounds.get(g.channelId(e) + ":" + g.vertexName(g.source(e)));
+            if (bound != null) capacity = Math.min(capacity, bound);
+            return Math.max(capacity - inFlight.getOrDefault(g.channelId(e), 0), 0);
+        }
+
+        private boolean isLocal(int e) {
+            return g.source(e) == source && localLiquidity.containsKey(g.channelId(e));
+        }
+
+        private int pieceSize(int e) {
+            return isLocal(e) ? capacity(e) : Math.ceilDiv(capacity(e), pieces);
+        }
+
+        // slope of the cost of the edge in the piece holding the amounts from x to x + 1
+        private double slope(int e, int x) {
+            // the sender knows the liquidity of its channels, and pays no fee on them
+            if (isLocal(e)) return 0.0;
+            int capacity = capacity(e);
+            int size = pieceSize(e);
+            int from = x / size * size;
+            int to = Math.min(from + size, capacity);
+            double uncertainty = (uncertainty(capacity, to) - uncertainty(capacity, from)) / (to - from);
+            double fee = g.source(e) == source ? 0.0 : feeWeight * g.feePpm(e) / 1_000_000;
+            return uncertainty + fee;
+        }
+
+        /**
+         * Send up to the amount on the cheapest residual path within max hops
+         * @return the amount sent, 0 if no residual path is left or the search went over budget
+         */
+        int augment(int target, int amount) {
+            Arrays.fill(dist[0], Double.POSITIVE_INFINITY);
+            dist[0][source] = 0.0;
+            int activeCount = 0;
+            active[activeCount++] = source;
+            // the last layer computed, the ones above would not improve on it
+            int layer = 0;
+
+            for (int h = 1; h <= hops && activeCount > 0; h++) {
+                layer = h;
+                System.arraycopy(dist[h - 1], 0, dist[h], 0, dist[h].length);
+                Arrays.fill(parentArc[h], -1);
+                stamp++;
+                int nextCount = 0;
+                for (int i = 0; i < activeCount; i++) {
+                    if (overBudget(stats)) {
+                        stats.excludedByBudget += activeCount - i;
+                        return 0;
+                    }
+                    int u = active[i];
+                    stats.investigatedStates++;
+                    double du = dist[h - 1][u];
+                    for (int e = g.firstOut(u); e >= 0; e = g.nextOut(e)) {
+                        stats.expandedEdges++;
+                        if (flow[e] >= capacity(e)) {
+                            stats.excludedByCapacity++;
+                            continue;
+                        }
+                        if (!g.hasPolicy(e)) {
+                            stats.excludedByCost++;
+                            continue;
+                        }
+                        nextCount = relax(h, g.target(e), du + slope(e, flow[e]), 2 * e, stamp, nextCount);
+                    }
+                    for (int e = g.firstIn(u); e >= 0; e = g.nextIn(e)) {
+                        if (flow[e] == 0) continue;
+                        stats.expandedEdges++;
+                        nextCount = relax(h, g.source(e), du - slope(e, flow[e] - 1), 2 * e + 1, stamp, nextCount);
+                    }
+                }
+                var swap = active;
+                active = nextActive;
+                nextActive = swap;
+                activeCount = nextCount;
+            }
+            if (activeCount > 0) stats.excludedByMaxHops += activeCount;
+            if (dist[layer][target] == Double.POSITIVE_INFINITY) return 0;
+
+            // the arcs back from the target, bounding the amount by the pieces they use
+            var arcs = new ArrayList<Integer>();
+            int sent = amount;
+            for (int v = target, h = layer; v != source; h--) {
+                int arc = parentArc[h][v];
+                if (arc < 0) continue;
+                int e = arc >>> 1;
+                int size = pieceSize(e);
+                if ((arc & 1) == 0) {
+                    sent = Math.min(sent, Math.min(flow[e] / size * size + size, capacity(e)) - flow[e]);
+                    v = g.source(e);
+                } else {
+                    sent = Math.min(sent, flow[e] - (flow[e] - 1) / size * size);
+                    v = g.target(e);
+                }
+                arcs.add(arc);
+            }
+            for (int arc : arcs) flow[arc >>> 1] += (arc & 1) == 0 ? sent : -sent;
+            return sent;
+        }
+
+        private int relax(int h, int v, double cost, int arc, int stamp, int nextCount) {
+            if (cost >= dist[h][v]) {
+                stats.excludedByVisitedState++;
+                return nextCount;
+            }
+            dist[h][v] = cost;
+            parentArc[h][v] = arc;
+            if (activeStamp[v] != stamp) {
+                activeStamp[v] = stamp;
+                nextActive[nextCount++] = v;
+            }
+            return nextCount;
+        }
+
+        /**
+         * Split the flow into paths from the source to the target, following the edges with the most flow
+         */
+        void decompose(int target, List<PathFlow> flows) {
+            var visited = new int[g.vertexCount()];
+            for (int round = 1; ; round++) {
+                var edges = new ArrayList<Integer>();
+                int amount = Integer.MAX_VALUE;
+                int v = source;
+                visited[v] = round;
+                while (v != target) {
+                    int best = -1;
+                    for (int e = g.firstOut(v); e >= 0; e = g.nextOut(e)) {
+                        if (flow[e] > 0 && (best < 0 || flow[e] > flow[best])) best = e;
+                    }
+                    // no flow left, or a cycle of flow, which a min cost flow of positive costs does not have
+                    if (best < 0 || visited[g.target(best)] == round) return;
+                    edges.add(best);
+                    amount = Math.min(amount, flow[best]);
+                    v = g.target(best);
+                    visited[v] = round;
+                }
+                // Path expects edges in reverse (end→start) order
+                var edgeList = new ArrayList<ChannelGraph.Edge>(edges.size());
+                for (int i = edges.size() - 1; i >= 0; i--) {
+                    flow[edges.get(i)] -= amount;
+                    edgeList.add(g.edge(edges.get(i)));
+                }
+                flows.add(new PathFlow(new Path(edgeList), amount));
+            }
+        }
+    }
+}
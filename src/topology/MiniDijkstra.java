@@ -1,21 +1,177 @@
 package topology;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.IntToDoubleFunction;
 
 /* -------------------------------------------------------------------------
  * Uniform-cost queue  –  “mini-Dijkstra”
  *
  * -------------------------------------------------------------------------*/
     /**
-     * A lightweight uniform-cost search ("mini-Dijkstra") over a {@link ChannelGraph}.
+     * A lightweight uniform-cost search ("mini-Dijkstra") over a {@link GraphView}.
      * Expands the cheapest frontier first
      * to collect up to {@code topk} lowest-cost simple paths from {@code start} to {@code end}.
      * Paths longer than max hops are pruned; vertices already on the partial path are skipped to avoid cycles.
+     * The bidirectional search expands the cheaper of two frontiers, from the start and backwards from the end,
+     * joining the partial paths of the two sides across the edges where they meet.
+     * Subclasses can turn the forward search into A* with a {@link #heuristic(GraphView, int)}.
      */
 public class MiniDijkstra extends PathFinder {
     public static final int DEFAULT_MAX_HOPS = 6;
 
-    private final int maxHops;
+    // Search states live in reusable primitive arrays: a partial path is the chain of parent state indices back to
+    // the start, so that expanding an edge appends a few numbers and allocates nothing.
+    // A search borrows its states from a bounded pool and returns them when done, rather than keeping one set per
+    // thread: with virtual threads each payment would otherwise retain arrays sized on the graph while it waits
+    private static final ArrayBlockingQueue<SearchStates> STATES_POOL =
+            new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors() + 2);
+
+    // a complete path of the bidirectional search, as edges from the start
+    private record JoinedPath(int[] edges, double cost) {}
+
+    private static SearchStates borrowStates() {
+        var states = STATES_POOL.poll();
+        return states != null ? states : new SearchStates();
+    }
+
+    // dropped if the pool is full
+    private static void returnStates(SearchStates states) {
+        STATES_POOL.offer(states);
+    }
+
+    private static final class SearchStates {
+        int[] vertex = new int[256];
+        int[] edge = new int[256];
+        int[] hops = new int[256];
+        int[] parent = new int[256];
+        double[] cost = new double[256];
+        // heap order: the cost, plus the A* estimate of the cost to the end
+        double[] key = new double[256];
+        int size;
+
+        // states popped at each vertex, as linked lists, for the bidirectional search
+        int[] settledHead = new int[0];
+        int[] nextSettled = new int[256];
+
+        // binary min-heap of state indices by key, ties broken by creation order
+        int[] heap = new int[256];
+        int heapSize;
+
+        // the topk lowest costs enqueued for each vertex, sorted
+        double[] bestCosts = new double[0];
+        int[] bestCount = new int[0];
+
+        void reset(int vertexCount, int topk) {
+            size = 0;
+            heapSize = 0;
+            if (bestCount.length < vertexCount) bestCount = new int[vertexCount];
+            else Arrays.fill(bestCount, 0, vertexCount, 0);
+            if (bestCosts.length < vertexCount * topk) bestCosts = new double[vertexCount * topk];
+            if (settledHead.length < vertexCount) settledHead = new int[vertexCount];
+            Arrays.fill(settledHead, 0, vertexCount, -1);
+        }
+
+        int add(int v, int e, double c, int h, int p) {
+            if (size == vertex.length) {
+                int n = size * 2;
+                vertex = Arrays.copyOf(vertex, n);
+                edge = Arrays.copyOf(edge, n);
+                hops = Arrays.copyOf(hops, n);
+                parent = Arrays.copyOf(parent, n);
+                cost = Arrays.copyOf(cost, n);
+                key = Arrays.copyOf(key, n);
+                nextSettled = Arrays.copyOf(nextSettled, n);
+            }
+            vertex[size] = v;
+            edge[size] = e;
+            cost[size] = c;
+            key[size] = c;
+            hops[size] = h;
+            parent[size] = p;
+            return size++;
+        }
+
+        void settle(int s) {
+            nextSettled[s] = settledHead[vertex[s]];
+            settledHead[vertex[s]] = s;
+        }
+
+        double topCost() {
+            return cost[heap[0]];
+        }
+
+        private boolean before(int s1, int s2) {
+            return key[s1] < key[s2] || (key[s1] == key[s2] && s1 < s2);
+        }
+
+        void push(int s) {
+            if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+            int i = heapSize++;
+            while (i > 0) {
+                int up = (i - 1) >>> 1;
+                if (!before(s, heap[up])) break;
+                heap[i] = heap[up];
+                i = up;
+            }
+            heap[i] = s;
+        }
+
+        int pop() {
+            int top = heap[0];
+            int last = heap[--heapSize];
+            int i = 0;
+            for (int child = 1; child < heapSize; child = 2 * i + 1) {
+                if (child + 1 < heapSize && before(heap[child + 1], heap[child])) child++;
+                if (!before(heap[child], last)) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        /**
+         * Walk back the partial path of state s, bounded by its hops
+         */
+        boolean pathContainsVertex(int s, int v) {
+            // the empty path contains no vertex
+            if (parent[s] < 0) return false;
+            for (; s >= 0; s = parent[s]) {
+                if (vertex[s] == v) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return the path of state s, with edges in reverse (end→start) order as expected by Path
+         */
+        Path toPath(GraphView g, int s) {
+            var edgeList = new ArrayList<ChannelGraph.Edge>(hops[s]);
+            for (; parent[s] >= 0; s = parent[s]) {
+                edgeList.add(g.edge(edge[s]));
+            }
+            return new Path(edgeList);
+        }
+
+        boolean shouldEnqueue(int vertex, double newCost, int topk) {
+            int offset = vertex * topk;
+            int count = bestCount[vertex];
+            int insertAt = Arrays.binarySearch(bestCosts, offset, offset + count, newCost);
+            if (insertAt < 0) {
+                insertAt = -insertAt - 1;
+            }
+            insertAt -= offset;
+            if (insertAt >= topk) {
+                return false;
+            }
+            int moved = Math.min(count, topk - 1) - insertAt;
+            System.arraycopy(bestCosts, offset + insertAt, bestCosts, offset + insertAt + 1, moved);
+            bestCosts[offset + insertAt] = newCost;
+            bestCount[vertex] = Math.min(count + 1, topk);
+            return true;
+        }
+    }
 
     public MiniDijkstra() {
         this(DEFAULT_MAX_HOPS);
@@ -25,112 +181,238 @@ public class MiniDijkstra extends PathFinder {
         this.maxHops = Math.max(0, maxHops);
     }
 
-    public double weight(ChannelGraph.Edge e, Path p) {
+    /**
+     * Incremental cost of appending edge e to a partial path
+     * @param hops the size of the partial path including e. The bidirectional search can't tell the position of the
+     *             edges found backwards from the end: it passes 1 for the edges leaving the start, more than 1 otherwise
+     */
+    public double weight(GraphView g, int e, int hops) {
         return 1.0;
     }
 
+    /**
+     * A* estimates for the forward search: lower bounds of the cost from a vertex to the end, never above the costs
+     * of any path, or null for a uniform-cost search
+     * @param target the end vertex, -1 if not in the graph
+     */
+    protected IntToDoubleFunction heuristic(GraphView g, int target) {
+        return null;
+    }
+
     @Override
-    public SearchResult findPaths(ChannelGraph g, String start, String end, int topk) {
+    public SearchResult findPaths(GraphView g, String start, String end, int topk) {
         if (topk <= 0) topk = 1;
+        if (bidirectional) return findPathsBidirectional(g, start, end, topk);
 
-        //record candidatePath(String vertex, double cost, List<ChannelGraph.Edge> path) {}
-        record candidatePath(String vertex, double cost, Path path) {}
-
-        var queue = new PriorityQueue<candidatePath>(Comparator.comparingDouble(candidatePath::cost));
-        Map<String, List<Double>> bestCostsByVertex = new HashMap<>();
         List<Path> paths = new ArrayList<>();
         var stats = new SearchStatsCollector();
+        int source = g.vertexId(start);
+        int target = g.vertexId(end);
+        if (source < 0) return buildSearchResult(paths, stats);
 
-        queue.add(new candidatePath(start, 0.0, new Path(null)));
-        bestCostsByVertex.put(start, new ArrayList<>(List.of(0.0)));
+        var states = borrowStates();
+        try {
+            states.reset(g.vertexCount(), topk);
+            var estimate = heuristic(g, target);
 
-        while (!queue.isEmpty() && paths.size() < topk) {
-            var currentCandidate = queue.poll();
-            stats.investigatedStates++;
-            if (currentCandidate.path().getSize()>maxHops) {
-                stats.excludedByMaxHops++;
-                continue;
-            }
-
-            if (currentCandidate.vertex().equals(end)) {            // found one of the k best
-                // Path expects edges in reverse (end→start) order; we currently hold start→end.
-                var edgeList = new ArrayList<ChannelGraph.Edge>(currentCandidate.path().edges());
-                Collections.reverse(edgeList);
-                var found = new Path(edgeList);
-                paths.add(found);
-                continue;                              // do not expand it further
-            }
+            states.push(states.add(source, -1, 0.0, 0, -1));
+            states.bestCosts[source * topk] = 0.0;
+            states.bestCount[source] = 1;
 
-            /* expand search frontier */
-            for (ChannelGraph.Edge e :
-                    g.getAdjMap().getOrDefault(currentCandidate.vertex(), Set.<ChannelGraph.Edge>of())) {
-                stats.expandedEdges++;
-                if (!canTraverse(e)) {
-                    stats.excludedByCapacity++;
-                    continue;
+            while (states.heapSize > 0 && paths.size() < topk) {
+                if (overBudget(stats)) {
+                    stats.excludedByBudget += states.heapSize;
+                    break;
                 }
-
-                String v = e.destination();
-
-                if (pathContainsVertex(currentCandidate.path(), v)) {
-                    stats.excludedByCycle++;
+                int current = states.pop();
+                int vertex = states.vertex[current];
+                int hops = states.hops[current];
+                stats.investigatedStates++;
+                if (hops > maxHops) {
+                    stats.excludedByMaxHops++;
                     continue;
                 }
 
-                var newPath = currentCandidate.path().getExtendedPath(e);
-                double newCost = currentCandidate.cost() + weight(e,newPath);
-                if (!Double.isFinite(newCost)) {
-                    stats.excludedByCost++;
-                    continue;
+                if (vertex == target) {            // found one of the k best
+                    paths.add(states.toPath(g, current));
+                    continue;                              // do not expand it further
                 }
-                if (shouldEnqueue(bestCostsByVertex, v, newCost, topk)) {
-                    queue.add(new candidatePath(v, newCost, newPath));
-                } else {
-                    stats.excludedByVisitedState++;
+
+                /* expand search frontier */
+                for (int e = g.firstOut(vertex); e >= 0; e = g.nextOut(e)) {
+                    stats.expandedEdges++;
+                    if (!canTraverse(g, e)) {
+                        stats.excludedByCapacity++;
+                        continue;
+                    }
+
+                    int v = g.target(e);
+
+                    if (states.pathContainsVertex(current, v)) {
+                        stats.excludedByCycle++;
+                        continue;
+                    }
+
+                    double newCost = states.cost[current] + weight(g, e, hops + 1);
+                    if (!Double.isFinite(newCost)) {
+                        stats.excludedByCost++;
+                        continue;
+                    }
+                    if (states.shouldEnqueue(v, newCost, topk)) {
+                        int s = states.add(v, e, newCost, hops + 1, current);
+                        if (estimate != null) states.key[s] += estimate.applyAsDouble(v);
+                        states.push(s);
+                    } else {
+                        stats.excludedByVisitedState++;
+                    }
                 }
             }
+        } finally {
+            returnStates(states);
         }
         return buildSearchResult(paths, stats);
     }
 
-    @Override
-    public double totalCost(Path p) {
-        double totalCost = 0.0;
-        for (ChannelGraph.Edge e : p.edges()) {
-            totalCost += weight(e, p);
+    private SearchResult findPathsBidirectional(GraphView g, String start, String end, int topk) {
+        List<Path> paths = new ArrayList<>();
+        var stats = new SearchStatsCollector();
+        int source = g.vertexId(start);
+        int target = g.vertexId(end);
+        if (source < 0 || target < 0) return buildSearchResult(paths, stats);
+        if (source == target) {
+            paths.add(new Path(List.of()));
+            return buildSearchResult(paths, stats);
         }
 
-        return totalCost;
-    }
+        // the best paths joined so far, sorted by cost
+        var joined = new ArrayList<JoinedPath>(topk + 1);
+        var forward = borrowStates();
+        var backward = borrowStates();
+        try {
+            for (var side : List.of(forward, backward)) {
+                int root = side == forward ? source : target;
+                side.reset(g.vertexCount(), topk);
+                side.push(side.add(root, -1, 0.0, 0, -1));
+                side.bestCosts[root * topk] = 0.0;
+                side.bestCount[root] = 1;
+            }
 
-    @Override
-    public PathDetails describePath(Path path) {
-        double total = totalCost(path);
-        return new PathDetails(path, total, List.of(new CostComponent("uniform_path_cost", total)));
-    }
+            while (forward.heapSize > 0 || backward.heapSize > 0) {
+                // new paths will join a state not settled yet by a side, costing at least its top, to the other side
+                double bound = forward.heapSize == 0 ? backward.topCost()
+                        : backward.heapSize == 0 ? forward.topCost()
+                        : forward.topCost() + backward.topCost();
+                if (joined.size() == topk && bound >= joined.get(topk - 1).cost()) break;
+                if (overBudget(stats)) {
+                    stats.excludedByBudget += forward.heapSize + backward.heapSize;
+                    break;
+                }
+
+                boolean isForward = backward.heapSize == 0 || (forward.heapSize > 0 && forward.topCost() <= backward.topCost());
+                var side = isForward ? forward : backward;
+                var other = isForward ? backward : forward;
+                int current = side.pop();
+                int vertex = side.vertex[current];
+                int hops = side.hops[current];
+                stats.investigatedStates++;
+                if (hops > maxHops) {
+                    stats.excludedByMaxHops++;
+                    continue;
+                }
+
+                side.settle(current);
+                if (vertex == (isForward ? target : source)) continue;    // do not expand it further
 
-    private boolean pathContainsVertex(Path path, String v) {
-        for (ChannelGraph.Edge e : path.edges()) {
-            if (e.source().equals(v) || e.destination().equals(v)) {
-                return true;
+                /* expand search frontier, along the incoming edges for the backward side */
+                for (int e = isForward ? g.firstOut(vertex) : g.firstIn(vertex); e >= 0; e = isForward ? g.nextOut(e) : g.nextIn(e)) {
+                    stats.expandedEdges++;
+                    if (!canTraverse(g, e)) {
+                        stats.excludedByCapacity++;
+                        continue;
+                    }
+
+                    int v = isForward ? g.target(e) : g.source(e);
+
+                    if (side.pathContainsVertex(current, v)) {
+                        stats.excludedByCycle++;
+                        continue;
+                    }
+
+                    double newCost = side.cost[current] + weight(g, e, isForward ? hops + 1 : v == source ? 1 : hops + 2);
+                    if (!Double.isFinite(newCost)) {
+                        stats.excludedByCost++;
+                        continue;
+                    }
+                    // the sides meet along e, with the states settled by the other one at v
+                    for (int s = other.settledHead[v]; s >= 0; s = other.nextSettled[s]) {
+                        if (isForward) join(forward, current, e, backward, s, newCost + backward.cost[s], joined, topk, stats);
+                        else join(forward, s, e, backward, current, forward.cost[s] + newCost, joined, topk, stats);
+                    }
+                    if (side.shouldEnqueue(v, newCost, topk)) {
+                        side.push(side.add(v, e, newCost, hops + 1, current));
+                    } else {
+                        stats.excludedByVisitedState++;
+                    }
+                }
             }
+        } finally {
+            returnStates(forward);
+            returnStates(backward);
+        }
+
+        for (var path : joined) {
+            // Path expects edges in reverse (end→start) order
+            var edgeList = new ArrayList<ChannelGraph.Edge>(path.edges().length);
+            for (int i = path.edges().length - 1; i >= 0; i--) edgeList.add(g.edge(path.edges()[i]));
+            paths.add(new Path(edgeList));
         }
-        return false;
+        return buildSearchResult(paths, stats);
     }
 
-    private boolean shouldEnqueue(Map<String, List<Double>> bestCostsByVertex, String vertex, double newCost, int topk) {
-        List<Double> bestCosts = bestCostsByVertex.computeIfAbsent(vertex, __ -> new ArrayList<>());
-        int insertAt = Collections.binarySearch(bestCosts, newCost);
-        if (insertAt < 0) {
-            insertAt = -insertAt - 1;
+    /**
+     * Join the partial paths of the forward state f and of the backward state b through the edge e between their
+     * vertices, if the result is a new simple path within max hops and among the topk cheapest found
+     */
+    private void join(SearchStates forward, int f, int e, SearchStates backward, int b, double cost,
+                      List<JoinedPath> joined, int topk, SearchStatsCollector stats) {
+        int length = forward.hops[f] + 1 + backward.hops[b];
+        if (length > maxHops) {
+            stats.excludedByMaxHops++;
+            return;
         }
-        if (insertAt >= topk) {
-            return false;
+        if (joined.size() == topk && cost >= joined.get(topk - 1).cost()) return;
+        for (int s = b; s >= 0; s = backward.parent[s]) {
+            if (forward.pathContainsVertex(f, backward.vertex[s])) {
+                stats.excludedByCycle++;
+                return;
+            }
         }
-        bestCosts.add(insertAt, newCost);
-        if (bestCosts.size() > topk) {
-            bestCosts.remove(topk);
+
+        var edges = new int[length];
+        int i = forward.hops[f];
+        for (int s = f; forward.parent[s] >= 0; s = forward.parent[s]) edges[--i] = forward.edge[s];
+        i = forward.hops[f];
+        edges[i++] = e;
+        for (int s = b; backward.parent[s] >= 0; s = backward.parent[s]) edges[i++] = backward.edge[s];
+        for (var path : joined) {
+            if (Arrays.equals(path.edges(), edges)) return;
         }
-        return true;
+
+        int at = 0;
+        while (at < joined.size() && joined.get(at).cost() <= cost) at++;
+        joined.add(at, new JoinedPath(edges, cost));
+        if (joined.size() > topk) joined.remove(topk);
+    }
+
+    @Override
+    public double totalCost(Path p) {
+        // uniform weight for each edge
+        return p.getSize();
+    }
+
+    @Override
+    public PathDetails describePath(Path path) {
+        double total = totalCost(path);
+        return new PathDetails(path, total, List.of(new CostComponent("uniform_path_cost", total)));
     }
 }
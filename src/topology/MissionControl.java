@@ -0,0 +1,95 @@
+package topology;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Outcomes of the payment attempts of a node, by channel direction and amount, as learned from the HTLC fulfills and
+ * from the liquidity failures reporting the erring channel. A failure penalizes the amounts at or above the failed one, the
+ * penalty decaying with a half-life in blocks: the success probability relative to the a priori one is
+ * {@code 1 - 2^(-elapsed blocks / half-life)}, 0 in the block of the failure and back to 1 over time.
+ * A success clears the failure of the channel direction if at or above the failed amount, and the amounts up to it
+ * are not penalized by a later failure of a larger one.
+ */
+public class MissionControl {
+
+    private record Key(String channelId, String source) {}
+
+    // the amounts from failAmount on fail since failBlock, successAmount is the largest forwarded since
+    private record History(int failAmount, int failBlock, int successAmount) {}
+
+    private static final int NO_FAILURE = Integer.MAX_VALUE;
+
+    private final double halfLifeBlocks;
+    private final ConcurrentHashMap<Key, History> histories = new ConcurrentHashMap<>();
+
+    public MissionControl(int halfLifeBlocks) {
+        this.halfLifeBlocks = Math.max(halfLifeBlocks, 1);
+    }
+
+    /**
+     * @param source the node forwarding on the channel
+     * @return the probability of forwarding the amount at the given block, relative to the a priori one: 1 for the
+     * channel directions with no failure at or below the amount
+     */
+    public double probability(String channelId, String source, int amountSat, int block) {
+        if (histories.isEmpty()) return 1.0;
+        var history = histories.get(new Key(channelId, source));
+        if (history == null || amountSat < history.failAmount() || amountSat <= history.successAmount()) return 1.0;
+        int elapsed = block - history.failBlock();
+        if (elapsed <= 0) return 0.0;
+        return 1.0 - Math.pow(2.0, -elapsed / halfLifeBlocks);
+    }
+
+    /**
+     * @return the product of the probabilities of the channels of the path
+     */
+    public double probability(Path path, int amountSat, int block) {
+        double probability = 1.0;
+        for (var edge : path.edges()) probability *= probability(edge.id(), edge.source(), amountSat, block);
+        return probability;
+    }
+
+    /**
+     * All the channels of the path forwarded the amount
+     */
+    public void recordSuccess(Path path, int amountSat) {
+        for (var edge : path.edges()) recordSuccess(new Key(edge.id(), edge.source()), amountSat);
+    }
+
+    /**
+     * The erring channel failed to forward the amount for the given reason, the channels from the sender up to it
+     * forwarded it. Only a temporary_channel_failure penalizes the erring channel, at or above the amount: other
+     * reasons (e.g. expiry_too_soon, the CLTV budget of the route exhausted at that hop) say nothing about its
+     * liquidity. Failures of channels not in the path, e.g. reported by a final node, are ignored
+     * @return true if the erring channel was penalized
+     */
+    public boolean recordFailure(Path path, int amountSat, String erringChannelId, String reason, int block) {
+        var edges = path.edges();
+        int erring = -1;
+        for (int i = 0; i < edges.size() && erring < 0; i++) {
+            if (edges.get(i).id().equals(erringChannelId)) erring = i;
+        }
+        if (erring < 0) return false;
+        // edges are stored from the destination to the sender
+        for (int i = edges.size() - 1; i > erring; i--) {
+            recordSuccess(new Key(edges.get(i).id(), edges.get(i).source()), amountSat);
+        }
+        if (!"temporary_channel_failure".equals(reason)) return false;
+        var key = new Key(erringChannelId, edges.get(erring).source());
+        histories.merge(key, new History(amountSat, block, 0), (old, failure) ->
+                new History(amountSat, block, Math.min(old.successAmount(), amountSat - 1)));
+        return true;
+    }
+
+    public int size() {
+        return histories.size();
+    }
+
+    private void recordSuccess(Key key, int amountSat) {
+        histories.merge(key, new History(NO_FAILURE, 0, amountSat), (old, success) -> {
+            int successAmount = Math.max(old.successAmount(), amountSat);
+            return old.failAmount() > successAmount ? new History(old.failAmount(), old.failBlock(), successAmount)
+                    : new History(NO_FAILURE, 0, successAmount);
+        });
+    }
+}
@@ -0,0 +1,247 @@
+package topology;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Immutable view of a node {@link ChannelGraph}: the shared base graph, minus the base edges the node does not know
+ * (or knows differently), plus the node own edges.
+ * Base vertices and edges keep their ids, the vertices and edges of the node follow them.
+ */
+final class OverlayGraph implements GraphView {
+
+    // version of the node graph this is a view of
+    private final long version;
+    // landmark index of the node graph, shared by its views
+    private final AtomicReference<LandmarkIndex> landmarks;
+    private final CsrGraph base;
+    private final int baseVertices;
+    private final int baseEdges;
+    // base edges not in the view
+    private final BitSet masked;
+    // base vertices not in the view
+    private final BitSet hidden;
+
+    private final StringIntMap extraIds;
+    private final String[] extraNames;
+    private final boolean[] extraPresent;
+
+    // node own edges, sorted by source: outgoing edges of v are in [localRow[v], localRow[v+1])
+    private final int[] localRow;
+    private final int[] source;
+    private final int[] target;
+    private final int[] capacity;
+    private final boolean[] hasPolicy;
+    private final int[] baseFee;
+    private final int[] feePpm;
+    private final int[] cltvDelta;
+    private final String[] channelId;
+
+    // incoming node own edges: localInEdge[localInRow[v]], ..., and local edge i is at localInPosition[i]
+    private final int[] localInRow;
+    private final int[] localInEdge;
+    private final int[] localInPosition;
+
+    OverlayGraph(long version, AtomicReference<LandmarkIndex> landmarks, CsrGraph base, BitSet masked, BitSet hidden,
+                 StringIntMap extraIds, String[] extraNames, boolean[] extraPresent, int extraCount,
+                 String[] slotChannel, int[] slotSource, int[] slotTarget, int[] slotCapacity,
+                 boolean[] slotHasPolicy, int[] slotBaseFee, int[] slotFeePpm, int[] slotCltv, int slotCount) {
+        this.version = version;
+        this.landmarks = landmarks;
+        this.base = base;
+        this.baseVertices = base.vertexCount();
+        this.baseEdges = base.edgeCount();
+        this.masked = (BitSet) masked.clone();
+        this.hidden = (BitSet) hidden.clone();
+        this.extraIds = extraIds.copy();
+        this.extraNames = Arrays.copyOf(extraNames, extraCount);
+        this.extraPresent = Arrays.copyOf(extraPresent, extraCount);
+
+        int vertexCount = baseVertices + extraCount;
+        localRow = new int[vertexCount + 1];
+        for (int s = 0; s < slotCount; s++) localRow[slotSource[s] + 1]++;
+        for (int v = 0; v < vertexCount; v++) localRow[v + 1] += localRow[v];
+
+        source = new int[slotCount];
+        target = new int[slotCount];
+        capacity = new int[slotCount];
+        hasPolicy = new boolean[slotCount];
+        baseFee = new int[slotCount];
+        feePpm = new int[slotCount];
+        cltvDelta = new int[slotCount];
+        channelId = new String[slotCount];
+
+        // stable counting sort by source vertex
+        int[] next = Arrays.copyOf(localRow, vertexCount);
+        for (int s = 0; s < slotCount; s++) {
+            int i = next[slotSource[s]]++;
+            source[i] = slotSource[s];
+            target[i] = slotTarget[s];
+            capacity[i] = slotCapacity[s];
+            hasPolicy[i] = slotHasPolicy[s];
+            baseFee[i] = slotBaseFee[s];
+            feePpm[i] = slotFeePpm[s];
+            cltvDelta[i] = slotCltv[s];
+            channelId[i] = slotChannel[s];
+        }
+
+        localInRow = new int[vertexCount + 1];
+        localInEdge = new int[slotCount];
+        localInPosition = new int[slotCount];
+        for (int i = 0; i < slotCount; i++) localInRow[target[i] + 1]++;
+        for (int v = 0; v < vertexCount; v++) localInRow[v + 1] += localInRow[v];
+        int[] nextIn = Arrays.copyOf(localInRow, vertexCount);
+        for (int i = 0; i < slotCount; i++) {
+            int p = nextIn[target[i]]++;
+            localInEdge[p] = baseEdges + i;
+            localInPosition[i] = p;
+        }
+    }
+
+    long version() {
+        return version;
+    }
+
+    /**
+     * @return the landmark index of the node graph, rebuilt from this view when missing, built for other landmarks or
+     * on another base, or older than maxChanges graph changes
+     */
+    LandmarkIndex landmarks(int count, int referenceAmountSat, long maxChanges, IntToDoubleFunction weight) {
+        var index = landmarks.get();
+        if (index != null && index.isUsable(version, base, count, referenceAmountSat, maxChanges)) return index;
+        var built = LandmarkIndex.build(this, version, base, count, referenceAmountSat, weight);
+        // a concurrent build from a newer view wins
+        return landmarks.accumulateAndGet(built, (prev, next) ->
+                prev == null || prev.version() < next.version() || !prev.isUsable(version, base, count, referenceAmountSat, maxChanges) ? next : prev);
+    }
+
+    @Override
+    public int vertexCount() {
+        return localRow.length - 1;
+    }
+
+    @Override
+    public int vertexId(String pubkey) {
+        int v = base.vertexId(pubkey);
+        if (v >= 0) return v;
+        return extraIds.get(pubkey);
+    }
+
+    @Override
+    public String vertexName(int v) {
+        return v < baseVertices ? base.vertexName(v) : extraNames[v - baseVertices];
+    }
+
+    @Override
+    public boolean isPresent(int v) {
+        return v < baseVertices ? !hidden.get(v) : extraPresent[v - baseVertices];
+    }
+
+    @Override
+    public int edgeCount() {
+        return baseEdges + source.length;
+    }
+
+    private int nextBaseEdge(int from, int end) {
+        int e = masked.nextClearBit(from);
+        return e < end ? e : -1;
+    }
+
+    private int firstLocalEdge(int v) {
+        return localRow[v] < localRow[v + 1] ? baseEdges + localRow[v] : -1;
+    }
+
+    @Override
+    public int firstOut(int v) {
+        if (v < baseVertices) {
+            int e = nextBaseEdge(base.rowStart(v), base.rowEnd(v));
+            if (e >= 0) return e;
+        }
+        return firstLocalEdge(v);
+    }
+
+    @Override
+    public int nextOut(int e) {
+        if (e < baseEdges) {
+            int src = base.source(e);
+            int next = nextBaseEdge(e + 1, base.rowEnd(src));
+            return next >= 0 ? next : firstLocalEdge(src);
+        }
+        int i = e - baseEdges;
+        return i + 1 < localRow[source[i] + 1] ? e + 1 : -1;
+    }
+
+    private int nextBaseInEdge(int from, int end) {
+        for (int p = from; p < end; p++) {
+            int e = base.inEdgeAt(p);
+            if (!masked.get(e)) return e;
+        }
+        return -1;
+    }
+
+    private int firstLocalInEdge(int v) {
+        return localInRow[v] < localInRow[v + 1] ? localInEdge[localInRow[v]] : -1;
+    }
+
+    @Override
+    public int firstIn(int v) {
+        if (v < baseVertices) {
+            int e = nextBaseInEdge(base.inRowStart(v), base.inRowEnd(v));
+            if (e >= 0) return e;
+        }
+        return firstLocalInEdge(v);
+    }
+
+    @Override
+    public int nextIn(int e) {
+        if (e < baseEdges) {
+            int tgt = base.target(e);
+            int next = nextBaseInEdge(base.inPosition(e) + 1, base.inRowEnd(tgt));
+            return next >= 0 ? next : firstLocalInEdge(tgt);
+        }
+        int p = localInPosition[e - baseEdges] + 1;
+        return p < localInRow[target[e - baseEdges] + 1] ? localInEdge[p] : -1;
+    }
+
+    @Override
+    public int source(int e) {
+        return e < baseEdges ? base.source(e) : source[e - baseEdges];
+    }
+
+    @Override
+    public int target(int e) {
+        return e < baseEdges ? base.target(e) : target[e - baseEdges];
+    }
+
+    @Override
+    public int capacity(int e) {
+        return e < baseEdges ? base.capacity(e) : capacity[e - baseEdges];
+    }
+
+    @Override
+    public boolean hasPolicy(int e) {
+        return e < baseEdges ? base.hasPolicy(e) : hasPolicy[e - baseEdges];
+    }
+
+    @Override
+    public int baseFee(int e) {
+        return e < baseEdges ? base.baseFee(e) : baseFee[e - baseEdges];
+    }
+
+    @Override
+    public int feePpm(int e) {
+        return e < baseEdges ? base.feePpm(e) : feePpm[e - baseEdges];
+    }
+
+    @Override
+    public int cltvDelta(int e) {
+        return e < baseEdges ? base.cltvDelta(e) : cltvDelta[e - baseEdges];
+    }
+
+    @Override
+    public String channelId(int e) {
+        return e < baseEdges ? base.channelId(e) : channelId[e - baseEdges];
+    }
+}
@@ -1,15 +1,27 @@
 package topology;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
 
 public abstract class PathFinder {
     public record CostComponent(String label, double value) {}
 
-    public record PathDetails(Path path, double totalCost, List<CostComponent> components) {
+    /**
+     * @param amountSat the amount the path should carry, for the path finders splitting the payment across their
+     *                  paths, 0 if the path is meant to carry the whole payment
+     */
+    public record PathDetails(Path path, double totalCost, List<CostComponent> components, int amountSat) {
         public PathDetails {
             components = List.copyOf(components);
         }
+
+        public PathDetails(Path path, double totalCost, List<CostComponent> components) {
+            this(path, totalCost, components, 0);
+        }
     }
 
     public record SearchStats(int investigatedStates,
@@ -19,6 +31,7 @@ public abstract class PathFinder {
                               int excludedByCycle,
                               int excludedByMaxHops,
                               int excludedByCost,
+                              int excludedByBudget,
                               int returnedPaths) {}
 
     public record SearchResult(List<PathDetails> paths, SearchStats stats) {
@@ -27,6 +40,18 @@ public abstract class PathFinder {
         }
     }
 
+    public record Query(String source, String destination, int amountSat) {}
+
+    /**
+     * @param results the results of the queries, in the same order
+     * @param stats the stats of all the searches summed up
+     */
+    public record BatchResult(List<SearchResult> results, SearchStats stats) {
+        public BatchResult {
+            results = List.copyOf(results);
+        }
+    }
+
     protected static final class SearchStatsCollector {
         int investigatedStates;
         int expandedEdges;
@@ -35,6 +60,20 @@ public abstract class PathFinder {
         int excludedByCycle;
         int excludedByMaxHops;
         int excludedByCost;
+        // frontier states left when the search went over budget
+        int excludedByBudget;
+        final long startNanos = System.nanoTime();
+
+        void add(SearchStats stats) {
+            investigatedStates += stats.investigatedStates();
+            expandedEdges += stats.expandedEdges();
+            excludedByCapacity += stats.excludedByCapacity();
+            excludedByVisitedState += stats.excludedByVisitedState();
+            excludedByCycle += stats.excludedByCycle();
+            excludedByMaxHops += stats.excludedByMaxHops();
+            excludedByCost += stats.excludedByCost();
+            excludedByBudget += stats.excludedByBudget();
+        }
 
         SearchStats snapshot(int returnedPaths) {
             return new SearchStats(
@@ -45,21 +84,142 @@ public abstract class PathFinder {
                     excludedByCycle,
                     excludedByMaxHops,
                     excludedByCost,
+                    excludedByBudget,
                     returnedPaths
             );
         }
     }
 
     protected int paymentAmountSat = 0;
+    protected int maxHops = Integer.MAX_VALUE;
+    // search from both the ends, meeting in the middle
+    protected boolean bidirectional = false;
+    // BFS and ShortestHop apply maxHops to their forward searches too
+    protected boolean forwardHopLimit = false;
+    // budget of each search
+    protected int maxExpandedEdges = Integer.MAX_VALUE;
+    protected long maxSearchNanos = Long.MAX_VALUE;
+
+    public SearchResult findPaths(ChannelGraph g, String start, String end, int topk) {
+        return findPaths(g.view(), start, end, topk);
+    }
+
+    public abstract SearchResult findPaths(GraphView g, String start, String end, int topk);
+
+    // queries searched sequentially by a fork/join task
+    private static final int BATCH_SLICE = 8;
+
+    /**
+     * Search the paths of many queries in parallel over the same graph view, e.g. for reachability or cost matrices.
+     * As the payment amount is a path finder setting, each task of the pool searches with its own path finder
+     * @param pathFinders supplies path finders with the same settings
+     */
+    public static BatchResult findPaths(Supplier<? extends PathFinder> pathFinders, GraphView g, List<Query> queries,
+                                        int topk, ForkJoinPool pool) {
+        var results = new SearchResult[queries.size()];
+        pool.invoke(new BatchTask(pathFinders, g, queries, topk, results, 0, results.length));
+
+        var total = new SearchStatsCollector();
+        int returnedPaths = 0;
+        for (var result : results) {
+            total.add(result.stats());
+            returnedPaths += result.stats().returnedPaths();
+        }
+        return new BatchResult(Arrays.asList(results), total.snapshot(returnedPaths));
+    }
+
+    public static BatchResult findPaths(Supplier<? extends PathFinder> pathFinders, GraphView g, List<Query> queries, int topk) {
+        return findPaths(pathFinders, g, queries, topk, ForkJoinPool.commonPool());
+    }
 
-    public abstract SearchResult findPaths(ChannelGraph g, String start, String end, int topk);
+    // ForkJoinTask is Serializable, but the tasks of a batch never leave the pool that runs them
+    @SuppressWarnings("serial")
+    private static final class BatchTask extends RecursiveAction {
+        private final Supplier<? extends PathFinder> pathFinders;
+        private final GraphView g;
+        private final List<Query> queries;
+        private final int topk;
+        private final SearchResult[] results;
+        private final int from;
+        private final int to;
+
+        BatchTask(Supplier<? extends PathFinder> pathFinders, GraphView g, List<Query> queries, int topk,
+                  SearchResult[] results, int from, int to) {
+            this.pathFinders = pathFinders;
+            this.g = g;
+            this.queries = queries;
+            this.topk = topk;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SLICE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchTask(pathFinders, g, queries, topk, results, from, middle),
+                        new BatchTask(pathFinders, g, queries, topk, results, middle, to));
+                return;
+            }
+            var pathFinder = pathFinders.get();
+            for (int i = from; i < to; i++) {
+                var query = queries.get(i);
+                pathFinder.setPaymentAmount(query.amountSat());
+                results[i] = pathFinder.findPaths(g, query.source(), query.destination(), topk);
+            }
+        }
+    }
 
     public void setPaymentAmount(int amountSat) {
         paymentAmountSat = Math.max(amountSat, 0);
     }
 
-    protected boolean canTraverse(ChannelGraph.Edge edge) {
-        return paymentAmountSat <= 0 || edge.capacity() >= paymentAmountSat;
+    /**
+     * Notice: BFS and ShortestHop apply the hop limit only to their bidirectional searches, unless
+     * {@link #setForwardHopLimit(boolean)}
+     */
+    public void setMaxHops(int maxHops) {
+        this.maxHops = Math.max(0, maxHops);
+    }
+
+    /**
+     * Apply the hop limit to the forward searches of BFS and ShortestHop as well, e.g. to compare them with their
+     * bidirectional searches. The other path finders always apply it
+     */
+    public void setForwardHopLimit(boolean forwardHopLimit) {
+        this.forwardHopLimit = forwardHopLimit;
+    }
+
+    public void setBidirectional(boolean bidirectional) {
+        this.bidirectional = bidirectional;
+    }
+
+    public boolean isBidirectional() {
+        return bidirectional;
+    }
+
+    /**
+     * Bound the work of each search: once over budget, a search stops and returns the best paths found so far.
+     * The budget is checked between the expansions of two states
+     * @param maxExpandedEdges 0 for no limit
+     * @param maxMillis wall-clock time, 0 for no limit
+     */
+    public void setBudget(int maxExpandedEdges, long maxMillis) {
+        this.maxExpandedEdges = maxExpandedEdges > 0 ? maxExpandedEdges : Integer.MAX_VALUE;
+        this.maxSearchNanos = maxMillis > 0 ? maxMillis * 1_000_000 : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return true if the search has used up its budget, the caller then adding its frontier to excludedByBudget
+     */
+    protected boolean overBudget(SearchStatsCollector stats) {
+        if (stats.expandedEdges >= maxExpandedEdges) return true;
+        return maxSearchNanos != Long.MAX_VALUE && System.nanoTime() - stats.startNanos >= maxSearchNanos;
+    }
+
+    protected boolean canTraverse(GraphView g, int e) {
+        return paymentAmountSat <= 0 || g.capacity(e) >= paymentAmountSat;
     }
 
     public PathDetails describePath(Path path) {
@@ -4,7 +4,7 @@ import misc.UVConfig;
 
 public final class PathFinderFactory {
     private PathFinderFactory() {}
-    public enum Strategy {MINI_DIJKSTRA, SHORTEST_HOP, BFS,LND }
+    public enum Strategy {MINI_DIJKSTRA, SHORTEST_HOP, BFS,LND, YEN, MIN_COST_FLOW }
 
     public static PathFinder of(Strategy s) {
         return switch (s) {
@@ -12,6 +12,8 @@ public final class PathFinderFactory {
             case SHORTEST_HOP -> new ShortestHop();
             case BFS        -> new BFS();
             case LND        -> new LNDPathFinder();
+            case YEN        -> new YenKShortest();
+            case MIN_COST_FLOW -> new MinCostFlow();
         };
     }
 
@@ -19,7 +21,7 @@ public final class PathFinderFactory {
         if (config == null) {
             return of(s);
         }
-        return switch (s) {
+        PathFinder pathFinder = switch (s) {
             case MINI_DIJKSTRA -> new MiniDijkstra(config.pathfinding_max_hops);
             case SHORTEST_HOP -> new ShortestHop();
             case BFS        -> new BFS();
@@ -31,13 +33,33 @@ public final class PathFinderFactory {
                     config.pathfinding_lnd_default_path_probability,
                     config.pathfinding_lnd_default_payment_amount_sat
             );
+            case YEN        -> new YenKShortest(config.pathfinding_max_hops);
+            case MIN_COST_FLOW -> new MinCostFlow(
+                    config.pathfinding_max_hops,
+                    config.pathfinding_mcf_pieces,
+                    config.pathfinding_mcf_fee_weight,
+                    config.pathfinding_mcf_max_iterations
+            );
         };
+        pathFinder.setMaxHops(config.pathfinding_max_hops);
+        pathFinder.setBidirectional(config.pathfinding_bidirectional);
+        pathFinder.setBudget(config.pathfinding_budget_edges, config.pathfinding_budget_ms);
+        if (pathFinder instanceof LNDPathFinder lnd) {
+            lnd.setLandmarks(config.pathfinding_lnd_landmarks, config.pathfinding_lnd_landmarks_rebuild_changes);
+        }
+        return pathFinder;
     }
 
     public static Strategy strategyOf(PathFinder pathFinder) {
         if (pathFinder instanceof LNDPathFinder) {
             return Strategy.LND;
         }
+        if (pathFinder instanceof MinCostFlow) {
+            return Strategy.MIN_COST_FLOW;
+        }
+        if (pathFinder instanceof YenKShortest) {
+            return Strategy.YEN;
+        }
         if (pathFinder instanceof MiniDijkstra) {
             return Strategy.MINI_DIJKSTRA;
         }
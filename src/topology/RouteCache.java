@@ -0,0 +1,107 @@
+package topology;
+
+import java.util.*;
+
+/**
+ * Bounded LRU cache of the search results of a node, by destination, amount bucket and path finding strategy.
+ * The amount buckets are powers of two: the paths found for an amount are reused for the amounts with the same
+ * highest bit, the callers still checking them against the actual amount.
+ * Entries are stamped with the epoch of the channel graph they were found on. With {@link Invalidation#EPOCH} any
+ * graph change invalidates them, with {@link Invalidation#CHANNELS} only the changes of the channels they contain,
+ * as notified by {@link #invalidateChannel(String)}: new channels do not invalidate routes that may now be worse.
+ */
+public class RouteCache {
+
+    public enum Invalidation { EPOCH, CHANNELS }
+
+    private record Key(String destination, int amountBucket, PathFinderFactory.Strategy strategy) {}
+
+    private record Entry(PathFinder.SearchResult result, long epoch) {}
+
+    private final Invalidation invalidation;
+    private final LinkedHashMap<Key, Entry> entries;
+    // keys of the entries containing each channel
+    private final Map<String, Set<Key>> keysByChannel = new HashMap<>();
+
+    /**
+     * @param capacity the number of entries kept, the least recently used being evicted
+     */
+    public RouteCache(int capacity, Invalidation invalidation) {
+        this.invalidation = invalidation;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= capacity) return false;
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param epoch the current epoch of the graph
+     * @return the result cached for the search, or null. A hit costs no search: its stats count only the returned paths
+     */
+    public synchronized PathFinder.SearchResult get(String destination, int amountSat, PathFinderFactory.Strategy strategy, long epoch) {
+        var key = new Key(destination, amountBucket(amountSat), strategy);
+        var entry = entries.get(key);
+        if (entry == null) return null;
+        if (invalidation == Invalidation.EPOCH && entry.epoch() != epoch) {
+            remove(key);
+            return null;
+        }
+        var paths = entry.result().paths();
+        return new PathFinder.SearchResult(paths, new PathFinder.SearchStats(0, 0, 0, 0, 0, 0, 0, 0, paths.size()));
+    }
+
+    /**
+     * @param epoch the epoch of the graph before the search, so that changes during the search invalidate the result
+     */
+    public synchronized void put(String destination, int amountSat, PathFinderFactory.Strategy strategy, long epoch,
+                                 PathFinder.SearchResult result) {
+        var key = new Key(destination, amountBucket(amountSat), strategy);
+        remove(key);
+        var entry = new Entry(result, epoch);
+        entries.put(key, entry);
+        // the entry may have been evicted right away, with a zero capacity
+        if (entries.get(key) != entry) return;
+        for (var path : result.paths()) {
+            for (var edge : path.path().edges()) {
+                keysByChannel.computeIfAbsent(edge.id(), id -> new HashSet<>()).add(key);
+            }
+        }
+    }
+
+    /**
+     * Remove the entries containing a channel, e.g. when its policies change
+     */
+    public synchronized void invalidateChannel(String channelId) {
+        var keys = keysByChannel.remove(channelId);
+        if (keys == null) return;
+        for (var key : keys) remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(Key key) {
+        var entry = entries.remove(key);
+        if (entry != null) unindex(key, entry);
+    }
+
+    private void unindex(Key key, Entry entry) {
+        for (var path : entry.result().paths()) {
+            for (var edge : path.path().edges()) {
+                var keys = keysByChannel.get(edge.id());
+                if (keys == null) continue;
+                keys.remove(key);
+                if (keys.isEmpty()) keysByChannel.remove(edge.id());
+            }
+        }
+    }
+
+    static int amountBucket(int amountSat) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(amountSat, 0));
+    }
+}
@@ -17,45 +17,73 @@ import java.util.*;
  * Limitation:Edge weights are still ignored; if the fee-optimal route is
  *            longer than the hop minimum, it will not appear.  Memory
  *            grows with the number of same-depth parents.
+ *
+ * Bidirectional: layers are expanded from both the ends until they meet,
+ *            then the paths through the shortest meetings combine the
+ *            parents of both the sides.
  * -------------------------------------------------------------------------*/
 public class ShortestHop extends PathFinder {
     @Override
-    public SearchResult findPaths(ChannelGraph g, String start, String end, int topk) {
-        /* frontier ordered by hop depth exactly as before */
-        var queue = new LinkedList<String>();
+    public SearchResult findPaths(GraphView g, String start, String end, int topk) {
+        if (bidirectional) return findPathsBidirectional(g, start, end, topk);
+
         var stats = new SearchStatsCollector();
+        List<Path> paths = new ArrayList<>();
+        int source = g.vertexId(start);
+        int target = g.vertexId(end);
+        if (source < 0) return buildSearchResult(paths, stats);
 
-        /* depth map instead of visited-set */
-        var depth  = new HashMap<String, Integer>();
-        depth.put(start, 0);
+        /* frontier ordered by hop depth exactly as before */
+        var queue = new int[g.vertexCount()];
+        int head = 0, tail = 0;
 
-        /* parents[v] = list of incoming edges that reach v with minimum depth */
-        var parents = new HashMap<String, ArrayList<ChannelGraph.Edge>>();
+        /* depth array instead of visited-set, -1 when not reached */
+        var depth = new int[g.vertexCount()];
+        Arrays.fill(depth, -1);
+        depth[source] = 0;
 
-        queue.add(start);
+        /* parents of v = linked list of incoming edges that reach v with minimum depth, in discovery order */
+        var firstParent = new int[g.vertexCount()];
+        var lastParent = new int[g.vertexCount()];
+        var nextParent = new int[g.edgeCount()];
+        Arrays.fill(firstParent, -1);
 
-        while (!queue.isEmpty()) {
-            var u = queue.poll();
+        queue[tail++] = source;
+
+        while (head < tail) {
+            // over budget, the target may still have been reached with some of its shortest paths
+            if (overBudget(stats)) {
+                stats.excludedByBudget += tail - head;
+                break;
+            }
+            int u = queue[head++];
             stats.investigatedStates++;
-            int d = depth.get(u);
+            int d = depth[u];
+            if (forwardHopLimit && d >= maxHops) {
+                stats.excludedByMaxHops++;
+                continue;
+            }
 
-            for (ChannelGraph.Edge e : g.getAdjMap().getOrDefault(u, Set.<ChannelGraph.Edge>of())) {
+            for (int e = g.firstOut(u); e >= 0; e = g.nextOut(e)) {
                 stats.expandedEdges++;
-                if (!canTraverse(e)) {
+                if (!canTraverse(g, e)) {
                     stats.excludedByCapacity++;
                     continue;
                 }
-                String v = e.destination();
+                int v = g.target(e);
 
                 /* first time we reach v → record depth & parent, enqueue */
-                if (!depth.containsKey(v)) {
-                    depth.put(v, d + 1);
-                    parents.computeIfAbsent(v, k -> new ArrayList<>()).add(e);
-                    queue.add(v);
+                if (depth[v] < 0) {
+                    depth[v] = d + 1;
+                    firstParent[v] = lastParent[v] = e;
+                    nextParent[e] = -1;
+                    queue[tail++] = v;
                 }
                 /* reached again at the SAME depth → additional shortest parent */
-                else if (depth.get(v) == d + 1) {
-                    parents.get(v).add(e);
+                else if (depth[v] == d + 1) {
+                    nextParent[lastParent[v]] = e;
+                    nextParent[e] = -1;
+                    lastParent[v] = e;
                 } else {
                     stats.excludedByVisitedState++;
                 }
@@ -63,10 +91,9 @@ public class ShortestHop extends PathFinder {
         }
 
         /* ---------- reconstruct every shortest path ---------- */
-        List<Path> paths = new ArrayList<>();
-        if (!depth.containsKey(end)) return buildSearchResult(paths, stats);      // unreachable
+        if (target < 0 || depth[target] < 0) return buildSearchResult(paths, stats);      // unreachable
 
-        buildPaths(end, parents, new ArrayList<>(), paths);
+        buildPaths(g, target, firstParent, nextParent, new ArrayList<>(), paths);
         if (topk > 0 && paths.size() > topk) {
             paths = new ArrayList<>(paths.subList(0, topk));
         }
@@ -74,6 +101,31 @@ public class ShortestHop extends PathFinder {
         return buildSearchResult(paths, stats);
     }
 
+    private SearchResult findPathsBidirectional(GraphView g, String start, String end, int topk) {
+        var stats = new SearchStatsCollector();
+        List<Path> paths = new ArrayList<>();
+        int source = g.vertexId(start);
+        int target = g.vertexId(end);
+        if (source < 0 || target < 0 || source == target) return buildSearchResult(paths, stats);
+
+        var search = new BidirectionalHops(g, this, stats, source, target, true);
+        int shortest = Integer.MAX_VALUE;
+        boolean expanding = true;
+        for (int met = 0; ; ) {
+            for (; met < search.meetingCount(); met++) shortest = Math.min(shortest, search.length(search.meeting(met)));
+            // all the shortest paths are met once the sides are deep enough
+            if (shortest <= search.depth() || !expanding) break;
+            expanding = search.expandLayer();
+        }
+
+        int limit = topk > 0 ? topk : Integer.MAX_VALUE;
+        for (int i = 0; i < search.meetingCount() && paths.size() < limit; i++) {
+            int meeting = search.meeting(i);
+            if (search.length(meeting) == shortest) search.allPaths(meeting, paths, limit);
+        }
+        return buildSearchResult(paths, stats);
+    }
+
     @Override
     public double totalCost(Path p) {
         return p.edges().size();
@@ -86,18 +138,19 @@ public class ShortestHop extends PathFinder {
     }
 
     /* DFS back-tracking, collects paths reversed (end → start) */
-    private void buildPaths(String v,
-                            Map<String, ArrayList<ChannelGraph.Edge>> parents,
+    private void buildPaths(GraphView g,
+                            int v,
+                            int[] firstParent,
+                            int[] nextParent,
                             List<ChannelGraph.Edge> partial,
                             List<Path> out) {
-        var plist = parents.get(v);
-        if (plist == null) {               // reached the start
+        if (firstParent[v] < 0) {               // reached the start
             out.add(new Path(partial));
             return;
         }
-        for (ChannelGraph.Edge e : plist) {
-            partial.add(e);
-            buildPaths(e.source(), parents, partial, out);
+        for (int e = firstParent[v]; e >= 0; e = nextParent[e]) {
+            partial.add(g.edge(e));
+            buildPaths(g, g.source(e), firstParent, nextParent, partial, out);
             partial.remove(partial.size() - 1);
         }
     }
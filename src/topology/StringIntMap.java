@@ -0,0 +1,122 @@
+package topology;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from String keys (pubkeys, channel ids) to int values, e.g. vertex ids or edge slots.
+ * Unlike a {@code HashMap<String,Integer>} lookups never box, and entries are not objects: gossip updates can find
+ * their edge without allocating. Keys can't be removed, as vertices and channels are never removed from a graph.
+ */
+final class StringIntMap implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 120679L;
+
+    private String[] keys;
+    private int[] values;
+    private int size = 0;
+
+    StringIntMap() {
+        this(16);
+    }
+
+    StringIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(8, expected) * 2 - 1) * 2;
+        keys = new String[capacity];
+        values = new int[capacity];
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the position of the key, to be used with {@link #valueAt(int)}, or -1 if not in the map
+     */
+    int indexOf(String key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the value of the key, or -1 if not in the map
+     */
+    int get(String key) {
+        int i = indexOf(key);
+        return i < 0 ? -1 : values[i];
+    }
+
+    void put(String key, int value) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(key)) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        // keep at least half of the table empty, so that probe sequences stay short
+        if (++size * 2 > keys.length) grow();
+    }
+
+    private void grow() {
+        var old_keys = keys;
+        var old_values = values;
+        keys = new String[old_keys.length * 2];
+        values = new int[old_keys.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < old_keys.length; j++) {
+            if (old_keys[j] == null) continue;
+            int i = hash(old_keys[j]) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = old_keys[j];
+            values[i] = old_values[j];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /* iteration over the positions, skipping the empty ones: for (int i = 0; i < m.capacity(); i++) if (m.keyAt(i) != null) */
+
+    int capacity() {
+        return keys.length;
+    }
+
+    String keyAt(int i) {
+        return keys[i];
+    }
+
+    int valueAt(int i) {
+        return values[i];
+    }
+
+    void setValueAt(int i, int value) {
+        values[i] = value;
+    }
+
+    void setAll(int value) {
+        Arrays.fill(values, value);
+    }
+
+    StringIntMap copy() {
+        var copy = new StringIntMap(0);
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        return copy;
+    }
+}
@@ -0,0 +1,270 @@
+package topology;
+
+import java.util.*;
+
+/**
+ * Yen's k-shortest loopless paths over a {@link GraphView}, with the same uniform cost as {@link MiniDijkstra}.
+ * Each accepted path is the root of spur searches only from the vertex where it deviated from its parent path
+ * onwards (Lawler's refinement): spurs from earlier vertices were already computed for the parent, and their
+ * candidates are kept in the candidate queue.
+ * Spur paths are found with a hop-bounded Dijkstra, avoiding the root vertices and the edges already used by the
+ * accepted paths sharing the same root.
+ */
+public class YenKShortest extends MiniDijkstra {
+
+    // a path as edges from the start, and the index of the vertex it deviates from the path it was spurred from
+    private record Candidate(int[] edges, double cost, int deviation) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Candidate c && Arrays.equals(edges, c.edges);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(edges);
+        }
+    }
+
+    public YenKShortest() {
+        super();
+    }
+
+    public YenKShortest(int maxHops) {
+        super(maxHops);
+    }
+
+    @Override
+    public void setBidirectional(boolean bidirectional) {
+        // spur searches start from the spur vertex, so they run forward only
+    }
+
+    @Override
+    public SearchResult findPaths(GraphView g, String start, String end, int topk) {
+        if (topk <= 0) topk = 1;
+
+        List<Path> paths = new ArrayList<>();
+        var stats = new SearchStatsCollector();
+        int source = g.vertexId(start);
+        int target = g.vertexId(end);
+        if (source < 0 || target < 0) return buildSearchResult(paths, stats);
+        if (source == target) {
+            paths.add(new Path(List.of()));
+            return buildSearchResult(paths, stats);
+        }
+
+        var spur = new SpurSearch(g, stats);
+        spur.reset();
+        var first = spur.search(source, 0.0, 0, target);
+        if (first == null) return buildSearchResult(paths, stats);
+
+        var accepted = new ArrayList<Candidate>(topk);
+        var candidates = new PriorityQueue<Candidate>(Comparator.comparingDouble(Candidate::cost));
+        var seen = new HashSet<Candidate>();
+        var firstPath = new Candidate(first, spur.lastCost, 0);
+        accepted.add(firstPath);
+        seen.add(firstPath);
+
+        boolean truncated = false;
+        while (accepted.size() < topk && !truncated) {
+            var last = accepted.get(accepted.size() - 1);
+            double rootCost = 0.0;
+            for (int i = 0; i < last.edges().length; rootCost += weight(g, last.edges()[i], i + 1), i++) {
+                if (i < last.deviation()) continue;
+                if (overBudget(stats)) {
+                    // the spur searches left
+                    stats.excludedByBudget += last.edges().length - i;
+                    truncated = true;
+                    break;
+                }
+                int spurVertex = i == 0 ? source : g.target(last.edges()[i - 1]);
+
+                spur.reset();
+                spur.banVertex(source);
+                for (int r = 0; r < i - 1; r++) spur.banVertex(g.target(last.edges()[r]));
+                for (var p : accepted) {
+                    if (p.edges().length > i && Arrays.equals(p.edges(), 0, i, last.edges(), 0, i)) {
+                        spur.banEdge(p.edges()[i]);
+                    }
+                }
+
+                var spurEdges = spur.search(spurVertex, rootCost, i, target);
+                if (spurEdges == null) continue;
+
+                var edges = Arrays.copyOf(last.edges(), i + spurEdges.length);
+                System.arraycopy(spurEdges, 0, edges, i, spurEdges.length);
+                var candidate = new Candidate(edges, spur.lastCost, i);
+                if (seen.add(candidate)) candidates.add(candidate);
+            }
+
+            if (candidates.isEmpty()) break;
+            accepted.add(candidates.poll());
+        }
+        // over budget, the candidates found so far complete the paths
+        while (truncated && accepted.size() < topk && !candidates.isEmpty()) accepted.add(candidates.poll());
+
+        for (var p : accepted) {
+            // Path expects edges in reverse (end→start) order
+            var edgeList = new ArrayList<ChannelGraph.Edge>(p.edges().length);
+            for (int i = p.edges().length - 1; i >= 0; i--) edgeList.add(g.edge(p.edges()[i]));
+            paths.add(new Path(edgeList));
+        }
+        return buildSearchResult(paths, stats);
+    }
+
+    /**
+     * Hop-bounded Dijkstra from a spur vertex, reusing its arrays across the spur searches of a findPaths call
+     */
+    private final class SpurSearch {
+        private final GraphView g;
+        private final SearchStatsCollector stats;
+
+        // per vertex values are valid only when stamped with the current search
+        private final int[] stamp;
+        private final double[] dist;
+        private final int[] hops;
+        private final int[] parentEdge;
+        private final boolean[] settled;
+        private final int[] bannedStamp;
+        private final BitSet bannedEdges = new BitSet();
+        private int current = 0;
+
+        // binary min-heap of (vertex, cost) entries, stale entries skipped when popped
+        private int[] heapVertex = new int[64];
+        private double[] heapCost = new double[64];
+        private int heapSize;
+
+        double lastCost;
+
+        SpurSearch(GraphView g, SearchStatsCollector stats) {
+            this.g = g;
+            this.stats = stats;
+            int n = g.vertexCount();
+            stamp = new int[n];
+            dist = new double[n];
+            hops = new int[n];
+            parentEdge = new int[n];
+            settled = new boolean[n];
+            bannedStamp = new int[n];
+        }
+
+        void reset() {
+            current++;
+            bannedEdges.clear();
+        }
+
+        void banVertex(int v) {
+            bannedStamp[v] = current;
+        }
+
+        void banEdge(int e) {
+            bannedEdges.set(e);
+        }
+
+        private boolean isBanned(int v) {
+            return bannedStamp[v] == current;
+        }
+
+        private void visit(int v, double cost, int h, int e) {
+            if (stamp[v] != current) {
+                stamp[v] = current;
+                settled[v] = false;
+            }
+            dist[v] = cost;
+            hops[v] = h;
+            parentEdge[v] = e;
+            push(v, cost);
+        }
+
+        /**
+         * Search from the spur vertex, with the bans set since the last {@link #reset()}
+         * @return the edges from the spur vertex to the target, or null if unreachable within max hops or over budget
+         */
+        int[] search(int from, double fromCost, int fromHops, int target) {
+            heapSize = 0;
+            visit(from, fromCost, fromHops, -1);
+
+            while (heapSize > 0) {
+                if (overBudget(stats)) {
+                    stats.excludedByBudget += heapSize;
+                    return null;
+                }
+                double cost = heapCost[0];
+                int u = pop();
+                if (settled[u] || cost > dist[u]) continue;
+                settled[u] = true;
+                stats.investigatedStates++;
+
+                if (u == target) {
+                    lastCost = cost;
+                    var edges = new int[hops[u] - fromHops];
+                    for (int v = u, i = edges.length - 1; v != from; v = g.source(parentEdge[v]), i--) {
+                        edges[i] = parentEdge[v];
+                    }
+                    return edges;
+                }
+                if (hops[u] >= maxHops) {
+                    stats.excludedByMaxHops++;
+                    continue;
+                }
+
+                for (int e = g.firstOut(u); e >= 0; e = g.nextOut(e)) {
+                    stats.expandedEdges++;
+                    if (!canTraverse(g, e)) {
+                        stats.excludedByCapacity++;
+                        continue;
+                    }
+                    int v = g.target(e);
+                    if (isBanned(v) || bannedEdges.get(e)) {
+                        stats.excludedByCycle++;
+                        continue;
+                    }
+                    double newCost = cost + weight(g, e, hops[u] + 1);
+                    if (!Double.isFinite(newCost)) {
+                        stats.excludedByCost++;
+                        continue;
+                    }
+                    if (stamp[v] == current && (settled[v] || dist[v] <= newCost)) {
+                        stats.excludedByVisitedState++;
+                        continue;
+                    }
+                    visit(v, newCost, hops[u] + 1, e);
+                }
+            }
+            return null;
+        }
+
+        private void push(int v, double cost) {
+            if (heapSize == heapVertex.length) {
+                heapVertex = Arrays.copyOf(heapVertex, heapSize * 2);
+                heapCost = Arrays.copyOf(heapCost, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int up = (i - 1) >>> 1;
+                if (heapCost[up] <= cost) break;
+                heapVertex[i] = heapVertex[up];
+                heapCost[i] = heapCost[up];
+                i = up;
+            }
+            heapVertex[i] = v;
+            heapCost[i] = cost;
+        }
+
+        private int pop() {
+            int top = heapVertex[0];
+            int lastVertex = heapVertex[--heapSize];
+            double lastKey = heapCost[heapSize];
+            int i = 0;
+            for (int child = 1; child < heapSize; child = 2 * i + 1) {
+                if (child + 1 < heapSize && heapCost[child + 1] < heapCost[child]) child++;
+                if (heapCost[child] >= lastKey) break;
+                heapVertex[i] = heapVertex[child];
+                heapCost[i] = heapCost[child];
+                i = child;
+            }
+            heapVertex[i] = lastVertex;
+            heapCost[i] = lastKey;
+            return top;
+        }
+    }
+}